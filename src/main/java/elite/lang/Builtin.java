@@ -914,6 +914,9 @@ public final class Builtin
      * 将集合对象转换成数组.
      */
     public static Object[] toArray(Collection c) {
+        if (c instanceof Seq) {
+            return seq_toList(ELEngine.getCurrentELContext(), (Seq)c).toArray();
+        }
         return c.toArray();
     }
 
@@ -921,15 +924,33 @@ public final class Builtin
      * 将集合对象转换成数组.
      */
     public static Object toArray(ELContext elctx, Collection c, Class type) {
+        if (c instanceof Seq) {
+            c = seq_toList(elctx, (Seq)c);
+        }
+
         int size = c.size();
         Object array = Array.newInstance(type, size);
         Iterator it = c.iterator();
         for (int i = 0; i < size; i++) {
-            Array.set(array, i, coerce(elctx, it.next(), type));
+            ArrayAccess.set(array, i, coerce(elctx, it.next(), type));
         }
         return array;
     }
 
+    /**
+     * 收集序列中的元素, 可分块读取的序列按块读取.
+     */
+    private static List seq_toList(ELContext elctx, Seq seq) {
+        final List result = new ArrayList();
+        Reducer.reduce(elctx, seq, new Reducer() {
+            public boolean step(ELContext elctx, Object x) {
+                result.add(x);
+                return true;
+            }
+        });
+        return result;
+    }
+
     /**
      * 以指定数据填充列表内容.
      *
@@ -1117,7 +1138,7 @@ public final class Builtin
         int size = Array.getLength(a);
         Object[] b = new Object[size];
         for (int i = 0; i < size; i++) {
-            b[i] = proc.call(elctx, Array.get(a, i));
+            b[i] = proc.call(elctx, ArrayAccess.get(a, i));
         }
         return b;
     }
@@ -1171,7 +1192,7 @@ public final class Builtin
         int size = Math.min(Array.getLength(a), Array.getLength(b));
         Object[] r = new Object[size];
         for (int i = 0; i < size; i++) {
-            r[i] = proc.call(elctx, Array.get(a,i), Array.get(b,i));
+            r[i] = proc.call(elctx, ArrayAccess.get(a,i), ArrayAccess.get(b,i));
         }
         return r;
     }
@@ -1357,7 +1378,7 @@ public final class Builtin
             }
         } else if (xs.getClass().isArray()) {
             for (int i = 0, len = Array.getLength(xs); i < len; i++) {
-                if (!pred.test(elctx, Array.get(xs, i))) {
+                if (!pred.test(elctx, ArrayAccess.get(xs, i))) {
                     return false;
                 }
             }
@@ -1400,7 +1421,7 @@ public final class Builtin
             }
         } else if (xs != null && xs.getClass().isArray()) {
             for (int i = 0, len = Array.getLength(xs); i < len; i++) {
-                if (pred.test(elctx, Array.get(xs, i))) {
+                if (pred.test(elctx, ArrayAccess.get(xs, i))) {
                     return true;
                 }
             }
@@ -1415,8 +1436,21 @@ public final class Builtin
      * 用法: collection.each { x => block... }
      */
     @Expando(name={"each", "foreach", "iterate"}, scope={EXPANDO,GLOBAL})
-    public static void each(ELContext elctx, Object xs, Closure proc) {
-        if (xs instanceof Iterable) {
+    public static void each(ELContext elctx, Object xs, final Closure proc) {
+        if (xs instanceof Seq) {
+            Reducer.reduce(elctx, (Seq)xs, new Reducer() {
+                public boolean step(ELContext elctx, Object e) {
+                    try {
+                        proc.call(elctx, e);
+                        return true;
+                    } catch (Control.Continue c) {
+                        return true;
+                    } catch (Control.Break b) {
+                        return false;
+                    }
+                }
+            });
+        } else if (xs instanceof Iterable) {
             for (Object e : (Iterable)xs) {
                 try {
                     proc.call(elctx, e);
@@ -1460,7 +1494,7 @@ public final class Builtin
         } else if (xs != null && xs.getClass().isArray()) {
             for (int i = 0, len = Array.getLength(xs); i < len; i++) {
                 try {
-                    proc.call(elctx, Array.get(xs, i));
+                    proc.call(elctx, ArrayAccess.get(xs, i));
                 } catch (Control.Continue c) {
                     continue;
                 } catch (Control.Break b) {
@@ -1505,7 +1539,7 @@ public final class Builtin
         if (arg.getClass().isArray()) {
             for (int i = 0, len = Array.getLength(arg); i < len; i++) {
                 try {
-                    proc.call_with(elctx, Array.get(arg, i));
+                    proc.call_with(elctx, ArrayAccess.get(arg, i));
                 } catch (Control.Continue c) {
                     continue;
                 } catch (Control.Break b) {
@@ -1519,8 +1553,17 @@ public final class Builtin
     }
 
     @Expando(name={"foldl", "foldLeft", "fold", "reduce"}, scope={EXPANDO,GLOBAL})
-    public static Object foldl(ELContext elctx, Object lst, Object init, Closure proc) {
-        if (lst instanceof Iterable) {
+    public static Object foldl(ELContext elctx, Object lst, Object init, final Closure proc) {
+        if (lst instanceof Seq) {
+            final Object[] acc = { init };
+            Reducer.reduce(elctx, (Seq)lst, new Reducer() {
+                public boolean step(ELContext elctx, Object e) {
+                    acc[0] = proc.call(elctx, acc[0], e);
+                    return true;
+                }
+            });
+            init = acc[0];
+        } else if (lst instanceof Iterable) {
             for (Object e : (Iterable)lst) {
                 init = proc.call(elctx, init, e);
             }
@@ -1539,12 +1582,91 @@ public final class Builtin
             }
         } else if (lst != null && lst.getClass().isArray()) {
             for (int i = 0, len = Array.getLength(lst); i < len; i++) {
-                init = proc.call(elctx, init, Array.get(lst, i));
+                init = proc.call(elctx, init, ArrayAccess.get(lst, i));
             }
         }
         return init;
     }
 
+    /**
+     * 使用一组转换器变换集合元素, 再以指定过程归约变换结果. 转换器按顺序作用于每个元素,
+     * 不生成中间的惰性序列, 其结果也不被保存, 每次归约都会重新调用转换器中的过程.
+     * 转换器可以是单个转换器, 也可以是转换器的列表或数组.
+     *
+     * 用法: [1..100].transduce([mapping(\x=>x*x), filtering(\x=>x%2==0), taking(3)], 0, (+))
+     *       ===> 56
+     */
+    @Expando(scope={EXPANDO,GLOBAL})
+    public static Object transduce(ELContext elctx, Object xs, Object xform, Object init, final Closure proc) {
+        if (xs == null) {
+            return init;
+        } else if (xs instanceof Map) {
+            xs = ((Map)xs).entrySet();
+        }
+
+        final Object[] acc = { init };
+        Reducer r = new Reducer() {
+            public boolean step(ELContext elctx, Object e) {
+                acc[0] = proc.call(elctx, acc[0], e);
+                return true;
+            }
+        };
+        Reducer.reduce(elctx, coerceToSeq(xs), toTransducer(xform).apply(r));
+        return acc[0];
+    }
+
+    private static Transducer toTransducer(Object xform) {
+        if (xform instanceof Transducer) {
+            return (Transducer)xform;
+        }
+
+        Transducer result = null;
+        for (Object x : coerceToSeq(xform)) {
+            if (!(x instanceof Transducer))
+                throw new IllegalArgumentException("transducer expected");
+            result = (result == null) ? (Transducer)x : result.then((Transducer)x);
+        }
+        if (result == null)
+            throw new IllegalArgumentException("transducer expected");
+        return result;
+    }
+
+    /**
+     * 返回一个转换器, 使用指定过程变换每个元素, 用于transduce.
+     *
+     * 用法: mapping(\x=>x*2)
+     */
+    public static Transducer mapping(Closure proc) {
+        return Transducer.map(proc);
+    }
+
+    /**
+     * 返回一个转换器, 只保留满足条件的元素, 用于transduce.
+     *
+     * 用法: filtering(\x=>x%2==0)
+     */
+    public static Transducer filtering(Closure pred) {
+        return Transducer.filter(pred);
+    }
+
+    /**
+     * 返回一个转换器, 只保留前n个元素, 用于transduce.
+     *
+     * 用法: taking(10)
+     */
+    public static Transducer taking(int n) {
+        return Transducer.take(n);
+    }
+
+    /**
+     * 返回一个转换器, 保留满足条件的前缀元素, 用于transduce.
+     *
+     * 用法: takingWhile(\x=>x<100)
+     */
+    public static Transducer takingWhile(Closure pred) {
+        return Transducer.takeWhile(pred);
+    }
+
     @Expando(name={"foldr", "foldRight"}, scope={EXPANDO,GLOBAL})
     public static Object foldr(ELContext elctx, Object lst, Object end, Closure proc) {
         if ((lst instanceof List) && (lst instanceof RandomAccess) &&
@@ -1567,7 +1689,7 @@ public final class Builtin
             }
         } else if (lst != null && lst.getClass().isArray()) {
             for (int i = Array.getLength(lst); --i >= 0; ) {
-                end = proc.call(elctx, Array.get(lst, i), end);
+                end = proc.call(elctx, ArrayAccess.get(lst, i), end);
             }
         }
         return end;
@@ -1639,12 +1761,66 @@ public final class Builtin
         } else if (a.getClass().isArray() && b.getClass().isArray()) {
             int size = Math.min(Array.getLength(a), Array.getLength(b));
             for (int i = 0; i < size; i++) {
-                z = p.call(elctx, z, Array.get(a,i), Array.get(b,i));
+                z = p.call(elctx, z, ArrayAccess.get(a,i), ArrayAccess.get(b,i));
             }
         }
         return z;
     }
 
+    /**
+     * 并行地对集合的每一个元素应用过程, 结果的顺序与集合中元素的顺序相同.
+     * 过程在多个线程中以不确定的顺序调用, 不应依赖共享的可变状态.
+     *
+     * 用法: collection.pmap { x => expression }
+     */
+    @Expando(scope={EXPANDO,GLOBAL})
+    public static Object pmap(ELContext elctx, Object xs, Closure proc) {
+        return Parallel.map(elctx, xs, proc);
+    }
+
+    /**
+     * 并行地选出集合中满足谓词的元素, 结果的顺序与集合中元素的顺序相同.
+     */
+    @Expando(scope={EXPANDO,GLOBAL})
+    public static Seq pfilter(ELContext elctx, Object xs, Closure pred) {
+        return Parallel.filter(elctx, xs, pred);
+    }
+
+    /**
+     * 并行地归约集合中的元素. 过程必须满足结合律, 初始值必须是过程的单位元,
+     * 如加法的0和乘法的1.
+     *
+     * 用法: collection.preduce(0, {x,y => x+y})
+     */
+    @Expando(scope={EXPANDO,GLOBAL})
+    public static Object preduce(ELContext elctx, Object xs, Object init, Closure proc) {
+        return Parallel.reduce(elctx, xs, init, proc);
+    }
+
+    /**
+     * 并行地使用指定过程遍历集合的每一个元素, 元素的调用顺序是不确定的.
+     */
+    @Expando(scope={EXPANDO,GLOBAL})
+    public static void peach(ELContext elctx, Object xs, Closure proc) {
+        Parallel.each(elctx, xs, proc);
+    }
+
+    /**
+     * 并行地判断集合中的所有元素是否都满足谓词.
+     */
+    @Expando(scope={EXPANDO,GLOBAL})
+    public static boolean pforall(ELContext elctx, Object xs, Closure pred) {
+        return Parallel.test(elctx, xs, pred, false);
+    }
+
+    /**
+     * 并行地判断集合中是否有元素满足谓词.
+     */
+    @Expando(scope={EXPANDO,GLOBAL})
+    public static boolean pforany(ELContext elctx, Object xs, Closure pred) {
+        return Parallel.test(elctx, xs, pred, true);
+    }
+
     @Expando(scope={EXPANDO,GLOBAL})
     public static Seq unfold(ELContext elctx, Object init, Closure next, Closure pred) {
         return UnfoldSeq.make(elctx, init, next, pred);
@@ -2721,12 +2897,12 @@ public final class Builtin
         }
 
         public Object get(int index) {
-            return Array.get(a, index);
+            return ArrayAccess.get(a, index);
         }
 
         public Object set(int index, Object value) {
-            Object oldValue = Array.get(a, index);
-            Array.set(a, index, value);
+            Object oldValue = ArrayAccess.get(a, index);
+            ArrayAccess.set(a, index, value);
             return oldValue;
         }
 
@@ -2734,13 +2910,13 @@ public final class Builtin
             int size = Array.getLength(a);
             if (o == null) {
                 for (int i=0; i<size; i++) {
-                    if (Array.get(a, i) == null) {
+                    if (ArrayAccess.get(a, i) == null) {
                         return i;
                     }
                 }
             } else {
                 for (int i=0; i<size; i++) {
-                    if (o.equals(Array.get(a, i))) {
+                    if (o.equals(ArrayAccess.get(a, i))) {
                         return i;
                     }
                 }
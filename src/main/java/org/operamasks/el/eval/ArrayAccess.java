@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.eval;
+
+import java.lang.reflect.Array;
+
+/**
+ * Element access for arrays of any component type.
+ *
+ * <p>The methods have the same semantics as {@link Array#get} and
+ * {@link Array#set}, but access object arrays and the common primitive
+ * arrays directly instead of through the native reflection methods.</p>
+ */
+public final class ArrayAccess
+{
+    private ArrayAccess() {}
+
+    public static Object get(Object array, int index) {
+        if (array instanceof Object[]) {
+            return ((Object[])array)[index];
+        } else if (array instanceof double[]) {
+            return ((double[])array)[index];
+        } else if (array instanceof int[]) {
+            return ((int[])array)[index];
+        } else if (array instanceof long[]) {
+            return ((long[])array)[index];
+        } else if (array instanceof char[]) {
+            return ((char[])array)[index];
+        } else if (array instanceof byte[]) {
+            return ((byte[])array)[index];
+        } else {
+            return Array.get(array, index);
+        }
+    }
+
+    /**
+     * Set an array element. The value should have been coerced to the
+     * component type, otherwise the value is unwrapped and widened as
+     * by {@link Array#set}.
+     */
+    public static void set(Object array, int index, Object value) {
+        if (array instanceof Object[]) {
+            Object[] a = (Object[])array;
+            if (value == null || a.getClass() == Object[].class ||
+                a.getClass().getComponentType().isInstance(value)) {
+                a[index] = value;
+                return;
+            }
+        } else if (array instanceof double[]) {
+            if (value instanceof Double) {
+                ((double[])array)[index] = (Double)value;
+                return;
+            }
+        } else if (array instanceof int[]) {
+            if (value instanceof Integer) {
+                ((int[])array)[index] = (Integer)value;
+                return;
+            }
+        } else if (array instanceof long[]) {
+            if (value instanceof Long) {
+                ((long[])array)[index] = (Long)value;
+                return;
+            }
+        } else if (array instanceof char[]) {
+            if (value instanceof Character) {
+                ((char[])array)[index] = (Character)value;
+                return;
+            }
+        } else if (array instanceof byte[]) {
+            if (value instanceof Byte) {
+                ((byte[])array)[index] = (Byte)value;
+                return;
+            }
+        }
+
+        Array.set(array, index, value);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.eval;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.ArrayList;
+import javax.el.ELContext;
+import javax.el.ELException;
+import javax.el.FunctionMapper;
+import javax.el.VariableMapper;
+import javax.el.ValueExpression;
+import javax.el.MethodExpression;
+
+import org.operamasks.el.parser.ELNode;
+import org.operamasks.el.parser.Parser;
+import org.operamasks.util.SimpleCache;
+
+/**
+ * A parsed expression that is independent of any ELContext.
+ *
+ * <p>A compiled expression is immutable, so it can be cached once and
+ * evaluated concurrently by many threads, each with its own ELContext.
+ * The functions and variables referenced by the expression are found out
+ * at compile time, so binding the expression to an ELContext only looks
+ * up these names instead of walking the syntax tree.</p>
+ */
+public final class CompiledExpression
+{
+    private final String   expression;
+    private final ELNode   node;
+    private final String[] functions;   // prefix and local name pairs
+    private final String[] variables;
+
+    private static final SimpleCache<String,CompiledExpression> cache =
+        SimpleCache.make("compiled", 5000);
+
+    private CompiledExpression(String expression, ELNode node) {
+        final List<String> fns = new ArrayList<String>();
+        final List<String> vars = new ArrayList<String>();
+
+        node.applyFunctionMapper(new FunctionMapper() {
+            public Method resolveFunction(String prefix, String localName) {
+                fns.add(prefix);
+                fns.add(localName);
+                return null;
+            }
+        });
+
+        node.applyVariableMapper(new VariableMapper() {
+            public ValueExpression resolveVariable(String name) {
+                if (!vars.contains(name))
+                    vars.add(name);
+                return null;
+            }
+            public ValueExpression setVariable(String name, ValueExpression value) {
+                throw new IllegalStateException();
+            }
+        });
+
+        this.expression = expression;
+        this.node = node;
+        this.functions = fns.toArray(new String[fns.size()]);
+        this.variables = vars.toArray(new String[vars.size()]);
+    }
+
+    /**
+     * Compile an expression string. The compiled expressions are cached.
+     */
+    public static CompiledExpression compile(String expression)
+        throws ELException
+    {
+        CompiledExpression compiled = cache.get(expression);
+        if (compiled == null) {
+            compiled = new CompiledExpression(expression, Parser.parse(expression));
+            cache.put(expression, compiled);
+        }
+        return compiled;
+    }
+
+    public static SimpleCache<String,CompiledExpression> getCache() {
+        return cache;
+    }
+
+    public String getExpressionString() {
+        return expression;
+    }
+
+    public boolean isLiteralText() {
+        return node instanceof ELNode.LITERAL;
+    }
+
+    /**
+     * Create a value expression that captures the functions and variables
+     * in the given context, as required by the javax.el specification.
+     */
+    public ValueExpression createValueExpression(ELContext context, Class<?> expectedType) {
+        return new ValueExpressionImpl(expression, node, expectedType,
+                                       linkFunctions(context.getFunctionMapper()),
+                                       linkVariables(context.getVariableMapper()));
+    }
+
+    /**
+     * Create a method expression that captures the functions and variables
+     * in the given context, as required by the javax.el specification.
+     */
+    public MethodExpression createMethodExpression(ELContext  context,
+                                                   Class<?>   expectedType,
+                                                   Class<?>[] expectedParamTypes)
+    {
+        if (expectedParamTypes == null) {
+            expectedParamTypes = new Class<?>[0];
+        }
+
+        if (node instanceof ELNode.LITERAL) {
+            if (expectedParamTypes.length != 0) { // FIXME
+                throw new ELException("The literal method expression cannot have parameters");
+            }
+            return new LiteralMethodExpression(expression, expectedType, expectedParamTypes);
+        }
+
+        return new MethodExpressionImpl(expression, node, expectedType, expectedParamTypes,
+                                        linkFunctions(context.getFunctionMapper()),
+                                        linkVariables(context.getVariableMapper()));
+    }
+
+    private FunctionMapper linkFunctions(FunctionMapper fm) {
+        if (fm == null) {
+            return null;
+        }
+
+        FunctionMapperImpl target = null;
+        for (int i = 0; i < functions.length; i += 2) {
+            Method m = fm.resolveFunction(functions[i], functions[i+1]);
+            if (m != null) {
+                if (target == null)
+                    target = new FunctionMapperImpl();
+                target.addFunction(functions[i], functions[i+1], m);
+            }
+        }
+        return target;
+    }
+
+    private VariableMapper linkVariables(VariableMapper vm) {
+        if (vm == null) {
+            return null;
+        }
+
+        VariableMapper target = null;
+        for (String name : variables) {
+            ValueExpression value = vm.resolveVariable(name);
+            if (value != null) {
+                if (target == null)
+                    target = new VariableMapperImpl();
+                target.setVariable(name, value);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Evaluate the expression with the functions and variables currently
+     * defined in the given context.
+     */
+    public Object getValue(ELContext elctx, Class<?> expectedType) {
+        try {
+            StackTrace.addFrame(elctx, "__expression__", null, 0);
+            Object value = node.getValue(new EvaluationContext(elctx));
+            if (expectedType == null || expectedType == Object.class) {
+                return value;
+            } else {
+                return TypeCoercion.coerce(elctx, value, expectedType);
+            }
+        } catch (EvaluationException ex) {
+            throw ValueExpressionImpl.wrap(elctx, ex, expression);
+        } catch (RuntimeException ex) {
+            throw ValueExpressionImpl.wrap(elctx, ex, expression);
+        } finally {
+            StackTrace.removeFrame(elctx);
+        }
+    }
+
+    /**
+     * Set the value referenced by the expression in the given context.
+     */
+    public void setValue(ELContext elctx, Object value) {
+        try {
+            StackTrace.addFrame(elctx, "__expression__", null, 0);
+            node.setValue(new EvaluationContext(elctx), value);
+        } catch (EvaluationException ex) {
+            throw ValueExpressionImpl.wrap(elctx, ex, expression);
+        } catch (RuntimeException ex) {
+            throw ValueExpressionImpl.wrap(elctx, ex, expression);
+        } finally {
+            StackTrace.removeFrame(elctx);
+        }
+    }
+
+    public String toString() {
+        return expression;
+    }
+}
@@ -53,6 +53,7 @@ import org.operamasks.el.eval.closure.MethodClosure;
 import org.operamasks.el.eval.closure.DataClass;
 import org.operamasks.el.resolver.ArrayELResolver;
 import org.operamasks.el.resolver.BeanPropertyELResolver;
+import org.operamasks.el.resolver.DispatchELResolver;
 import org.operamasks.el.resolver.ListELResolver;
 import org.operamasks.el.resolver.MapELResolver;
 import org.operamasks.el.resolver.SeqELResolver;
@@ -135,7 +136,7 @@ public final class ELEngine
      * 创建一个缺省配置的EL求值上下文, 该上下文可以满足大多数情况下的求值要求.
      */
     public static ELContext createELContext() {
-        CompositeELResolver composite = new CompositeELResolver();
+        CompositeELResolver composite = new DispatchELResolver();
         addDefaultELResolvers(composite);
         composite.add(new ResourceBundleELResolver());
         composite.add(new BeanPropertyELResolver());
@@ -148,7 +149,7 @@ public final class ELEngine
      * @param varMapper 变量绑定
      */
     public static ELContext createELContext(VariableMapper varMapper) {
-        CompositeELResolver composite = new CompositeELResolver();
+        CompositeELResolver composite = new DispatchELResolver();
         addDefaultELResolvers(composite);
         composite.add(new ResourceBundleELResolver());
         composite.add(new BeanPropertyELResolver());
@@ -426,7 +427,7 @@ public final class ELEngine
                     int count = arglist.size();
                     Object vargs = Array.newInstance(argtype, count);
                     for (int i = 0; i < count; i++) {
-                        Array.set(vargs, i, coerce(elctx, arglist.get(i), argtype));
+                        ArrayAccess.set(vargs, i, coerce(elctx, arglist.get(i), argtype));
                     }
                     values[nargs] = vargs;
                 } else if (last != null && last.getClass().isArray()) {
@@ -437,21 +438,21 @@ public final class ELEngine
                         int count = Array.getLength(last);
                         Object vargs = Array.newInstance(argtype, count);
                         for (int i = 0; i < count; i++) {
-                            Array.set(vargs, i, coerce(elctx, Array.get(last, i), argtype));
+                            ArrayAccess.set(vargs, i, coerce(elctx, ArrayAccess.get(last, i), argtype));
                         }
                         values[nargs] = vargs;
                     }
                 } else {
                     // the method invoked with solely argument
                     Object vargs = Array.newInstance(argtype, 1);
-                    Array.set(vargs, 0, coerce(elctx, last, argtype));
+                    ArrayAccess.set(vargs, 0, coerce(elctx, last, argtype));
                     values[nargs] = vargs;
                 }
             } else {
                 // copy argument values from argument list
                 Object vargs = Array.newInstance(argtype, vargc);
                 for (int i = 0; i < vargc; i++) {
-                    Array.set(vargs, i, coerce(elctx, args[ivarg++].getValue(elctx), argtype));
+                    ArrayAccess.set(vargs, i, coerce(elctx, args[ivarg++].getValue(elctx), argtype));
                 }
                 values[nargs] = vargs;
             }
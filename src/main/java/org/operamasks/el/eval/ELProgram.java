@@ -19,6 +19,9 @@ package org.operamasks.el.eval;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.Collections;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.lang.reflect.Field;
@@ -45,6 +48,11 @@ public class ELProgram implements Serializable
     private List<ELNode> defs;
     private List<ELNode> exps;
 
+    // the functions referenced by expressions, as prefix and local name pairs
+    private transient volatile String[] functions;
+    // incremented when the program is changed to invalidate linkages
+    private transient volatile int modCount;
+
     private static final long serialVersionUID = 3112245719728771823L;
 
     public ELProgram() {
@@ -59,23 +67,48 @@ public class ELProgram implements Serializable
         Module module = new Module(name, prefix);
         if (!mods.contains(module)) {
             mods.add(module);
+            modCount++;
         }
     }
 
     public void addLibrary(String name) {
         if (!libs.contains(name)) {
             libs.add(name);
+            modCount++;
         }
     }
 
     public void addImport(String imp) {
         if (!imps.contains(imp)) {
             imps.add(imp);
+            modCount++;
         }
     }
 
+    /**
+     * Add the modules, imports and expressions of another program, as if
+     * the other program is required by this program.
+     */
+    public void addProgram(ELProgram prog) {
+        for (Module module : prog.mods) {
+            addModule(module.name, module.prefix);
+        }
+        for (String name : prog.libs) {
+            addLibrary(name);
+        }
+        for (String imp : prog.imps) {
+            addImport(imp);
+        }
+        defs.addAll(prog.defs);
+        exps.addAll(prog.exps);
+        functions = null;
+        modCount++;
+    }
+
     public void addExpression(ELNode exp) {
         (isDef(exp) ? defs : exps).add(exp);
+        functions = null;
+        modCount++;
     }
 
     private static boolean isDef(ELNode node) {
@@ -92,30 +125,14 @@ public class ELProgram implements Serializable
     }
 
     public Object execute(ELContext elctx, String file, int line) {
-        FunctionMapper fm = elctx.getFunctionMapper();
-        VariableMapper vm = elctx.getVariableMapper();
-
-        // The function mapper is not significant in XEL, we built it for all
-        // expressions for performance reasons. The variable mapper will
-        // be built for individual expression.
-        if (fm != null) {
-            FunctionMapperBuilder fmb = new FunctionMapperBuilder(fm);
-            for (ELNode node : exps) {
-                node.applyFunctionMapper(fmb);
-            }
-            fm = fmb.build();
-        }
-
         // Evaluate expressions in global context.
-        EvaluationContext env = new EvaluationContext(elctx, fm, vm);
         Frame frame = StackTrace.addFrame(elctx, "__toplevel__", file, Position.make(line, 1));
 
         // Execute program in three steps:
         try {
-            // 1) import modules and classes
-            importModules(elctx);
-            importFunctions(elctx);
-            importPackages(elctx);
+            // 1) import modules and classes, this is done once for a context
+            Linkage link = link(elctx);
+            EvaluationContext env = new EvaluationContext(elctx, link.fm, elctx.getVariableMapper());
 
             // 2) define function and class for forward reference
             for (ELNode node : defs) {
@@ -137,10 +154,12 @@ public class ELProgram implements Serializable
 
     // Implementation
 
-    static class Module {
+    static class Module implements Serializable {
         String name;
         String prefix;
 
+        private static final long serialVersionUID = -6021573359218304437L;
+
         Module(String name, String prefix) {
             this.name = name;
             this.prefix = prefix;
@@ -159,20 +178,138 @@ public class ELProgram implements Serializable
         }
     }
 
-    private void importModules(ELContext elctx) {
+    /**
+     * The state established by linking a program into an ELContext. The
+     * linkage is saved in the context and reused by following executions
+     * of the program as long as the context configuration is not changed.
+     * Functions added to the function mapper after linking are resolved
+     * on use, functions replaced in it are not noticed.
+     */
+    private static class Linkage {
+        final int            modCount;
+        final FunctionMapper source;
+        final VariableMapper vm;
+        final ClassLoader    loader;
+        Object               methods;
+        Object               classes;
+
+        // The function mapper is not significant in XEL, we built it for all
+        // expressions for performance reasons. The variable mapper will
+        // be built for individual expression.
+        FunctionMapper fm;
+
+        // the imported static fields, restored on each execution
+        final List<String>  names = new ArrayList<String>();
+        final List<Closure> fields = new ArrayList<Closure>();
+
+        Linkage(ELContext elctx, int modCount) {
+            this.modCount = modCount;
+            this.source   = elctx.getFunctionMapper();
+            this.vm       = elctx.getVariableMapper();
+            this.loader   = Utils.getClassLoader(elctx);
+            this.methods  = elctx.getContext(MethodResolver.class);
+            this.classes  = elctx.getContext(ClassResolver.class);
+        }
+
+        boolean isValid(ELContext elctx, int modCount) {
+            return this.modCount == modCount
+                && source  == elctx.getFunctionMapper()
+                && vm      == elctx.getVariableMapper()
+                && loader  == Utils.getClassLoader(elctx)
+                && methods == elctx.getContext(MethodResolver.class)
+                && classes == elctx.getContext(ClassResolver.class);
+        }
+
+        void importField(String name, Closure closure) {
+            names.add(name);
+            fields.add(closure);
+            vm.setVariable(name, closure);
+        }
+
+        void restoreFields() {
+            for (int i = 0, n = names.size(); i < n; i++) {
+                String name = names.get(i);
+                Closure closure = fields.get(i);
+                if (vm.resolveVariable(name) != closure) {
+                    vm.setVariable(name, closure);
+                }
+            }
+        }
+    }
+
+    private Linkage link(ELContext elctx) {
+        Map<ELProgram,Linkage> links = getLinkages(elctx);
+        int count = modCount;
+
+        Linkage link = links.get(this);
+        if (link != null && link.isValid(elctx, count)) {
+            link.restoreFields();
+            return link;
+        }
+
+        link = new Linkage(elctx, count);
+        if (link.source != null) {
+            link.fm = linkFunctions(link.source);
+        }
+        importModules(elctx, link);
+        importFunctions(elctx, link);
+        importPackages(elctx);
+
+        // the resolvers may be created by importing
+        link.methods = elctx.getContext(MethodResolver.class);
+        link.classes = elctx.getContext(ClassResolver.class);
+        links.put(this, link);
+        return link;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<ELProgram,Linkage> getLinkages(ELContext elctx) {
+        Map<ELProgram,Linkage> links = (Map<ELProgram,Linkage>)elctx.getContext(Linkage.class);
+        if (links == null) {
+            links = Collections.synchronizedMap(new WeakHashMap<ELProgram,Linkage>());
+            elctx.putContext(Linkage.class, links);
+        }
+        return links;
+    }
+
+    private FunctionMapper linkFunctions(FunctionMapper source) {
+        String[] fns = functions;
+        if (fns == null) {
+            final List<String> list = new ArrayList<String>();
+            FunctionMapper collector = new FunctionMapper() {
+                public Method resolveFunction(String prefix, String localName) {
+                    list.add(prefix);
+                    list.add(localName);
+                    return null;
+                }
+            };
+            for (ELNode node : exps) {
+                node.applyFunctionMapper(collector);
+            }
+            functions = fns = list.toArray(new String[list.size()]);
+        }
+
+        FunctionMapperBuilder fmb = new FunctionMapperBuilder(source);
+        for (int i = 0; i < fns.length; i += 2) {
+            fmb.resolveFunction(fns[i], fns[i+1]);
+        }
+        return fmb.build();
+    }
+
+    private void importModules(ELContext elctx, Linkage link) {
         if (!mods.isEmpty()) {
             MethodResolver resolver = MethodResolver.getInstance(elctx);
             for (Module mod : mods) {
                 Class cls = findClass(elctx, mod.name);
                 resolver.addModule(elctx, cls, mod.prefix);
                 for (Field field : cls.getFields()) {
-                    importField(elctx, field, mod.prefix);
+                    importField(link, field, mod.prefix);
                 }
             }
         }
     }
 
-    private void importFunctions(ELContext elctx) {
+    private void importFunctions(ELContext elctx, Linkage link) {
         if (!libs.isEmpty()) {
             MethodResolver resolver = MethodResolver.getInstance(elctx);
 
@@ -189,7 +326,7 @@ public class ELProgram implements Serializable
                 if (name.equals("*")) {
                     resolver.addGlobalMethods(cls);
                     for (Field field : cls.getFields()) {
-                        importField(elctx, field, null);
+                        importField(link, field, null);
                     }
                 } else {
                     for (Method method : cls.getMethods()) {
@@ -199,7 +336,7 @@ public class ELProgram implements Serializable
                         }
                     }
                     try {
-                        importField(elctx, cls.getField(name), null);
+                        importField(link, cls.getField(name), null);
                     } catch (NoSuchFieldException ex) {
                         // ignore
                     }
@@ -208,7 +345,7 @@ public class ELProgram implements Serializable
         }
     }
 
-    private static void importField(ELContext elctx, Field field, String prefix) {
+    private static void importField(Linkage link, Field field, String prefix) {
         if (Modifier.isStatic(field.getModifiers())) {
             try {
                 field.setAccessible(true);
@@ -221,7 +358,7 @@ public class ELProgram implements Serializable
                 } else {
                     closure = new FieldClosure(field);
                 }
-                elctx.getVariableMapper().setVariable(name, closure);
+                link.importField(name, closure);
             } catch (IllegalAccessException ex) {
                 // ignored
             }
@@ -21,12 +21,6 @@ import javax.el.ExpressionFactory;
 import javax.el.ValueExpression;
 import javax.el.ELContext;
 import javax.el.MethodExpression;
-import javax.el.ELException;
-import javax.el.FunctionMapper;
-import javax.el.VariableMapper;
-
-import org.operamasks.el.parser.ELNode;
-import org.operamasks.el.parser.Parser;
 
 public class ExpressionFactoryImpl extends ExpressionFactory
 {
@@ -44,23 +38,7 @@ public class ExpressionFactoryImpl extends ExpressionFactory
                                                  String expression,
                                                  Class<?> expectedType)
     {
-        ELNode node = Parser.parse(expression);
-
-        FunctionMapper fm = context.getFunctionMapper();
-        if (fm != null) {
-            FunctionMapperBuilder fmb = new FunctionMapperBuilder(fm);
-            node.applyFunctionMapper(fmb);
-            fm = fmb.build();
-        }
-
-        VariableMapper vm = context.getVariableMapper();
-        if (vm != null) {
-            VariableMapperBuilder vmb = new VariableMapperBuilder(vm);
-            node.applyVariableMapper(vmb);
-            vm = vmb.build();
-        }
-
-        return new ValueExpressionImpl(expression, node, expectedType, fm, vm);
+        return CompiledExpression.compile(expression).createValueExpression(context, expectedType);
     }
 
     /**
@@ -80,34 +58,8 @@ public class ExpressionFactoryImpl extends ExpressionFactory
                                                    Class<?>   expectedType,
                                                    Class<?>[] expectedParamTypes)
     {
-        if (expectedParamTypes == null) {
-            expectedParamTypes = new Class<?>[0];
-        }
-
-        ELNode node = Parser.parse(expression);
-
-        if (node instanceof ELNode.LITERAL) {
-            if (expectedParamTypes.length != 0) { // FIXME
-                throw new ELException("The literal method expression cannot have parameters");
-            }
-            return new LiteralMethodExpression(expression, expectedType, expectedParamTypes);
-        }
-
-        FunctionMapper fm = context.getFunctionMapper();
-        if (fm != null) {
-            FunctionMapperBuilder fmb = new FunctionMapperBuilder(fm);
-            node.applyFunctionMapper(fmb);
-            fm = fmb.build();
-        }
-
-        VariableMapper vm = context.getVariableMapper();
-        if (vm != null) {
-            VariableMapperBuilder vmb = new VariableMapperBuilder(vm);
-            node.applyVariableMapper(vmb);
-            vm = vmb.build();
-        }
-
-        return new MethodExpressionImpl(expression, node, expectedType, expectedParamTypes, fm, vm);
+        return CompiledExpression.compile(expression)
+            .createMethodExpression(context, expectedType, expectedParamTypes);
     }
 
     public Object coerceToType(Object obj, Class<?> targetType) {
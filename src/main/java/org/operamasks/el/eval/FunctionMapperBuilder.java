@@ -39,7 +39,24 @@ class FunctionMapperBuilder extends FunctionMapper
         return m;
     }
 
+    /**
+     * Returns a function mapper that holds the functions resolved so far.
+     * Other functions are resolved by the source mapper when requested,
+     * so functions added to the source later are found.
+     */
     public FunctionMapper build() {
-        return target;
+        if (target == null) {
+            return source;
+        }
+
+        final FunctionMapper resolved = target;
+        return new FunctionMapper() {
+            public Method resolveFunction(String prefix, String localName) {
+                Method m = resolved.resolveFunction(prefix, localName);
+                if (m == null)
+                    m = source.resolveFunction(prefix, localName);
+                return m;
+            }
+        };
     }
 }
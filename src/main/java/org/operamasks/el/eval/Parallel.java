@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.eval;
+
+import java.lang.reflect.Array;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.el.ELContext;
+import javax.el.ELException;
+
+import elite.lang.Closure;
+import elite.lang.Range;
+import elite.lang.Seq;
+import org.operamasks.el.eval.seq.ArraySeq;
+import org.operamasks.el.eval.seq.Reducer;
+import static org.operamasks.el.eval.TypeCoercion.coerceToSeq;
+
+/**
+ * Parallel collection operations.
+ *
+ * <p>The source is split into ranges processed by a thread pool, each
+ * range evaluated with its own ELContext delegating to the caller's
+ * context. Arrays, random access lists and bounded ranges are split
+ * directly, other collections and sequences are collected first.
+ * Sources smaller than the {@linkplain #setThreshold threshold}, and
+ * operations started from a pool thread, are processed sequentially.</p>
+ *
+ * <p>The procedures are called concurrently and in no particular order,
+ * so they should not depend on shared mutable state. The results of map
+ * and filter are in source order. Reduce folds each range from the
+ * initial value and combines the range results from left to right, so
+ * the procedure must be associative and the initial value must be its
+ * identity, such as 0 for addition.</p>
+ */
+public final class Parallel
+{
+    private Parallel() {}
+
+    private static volatile int threshold =
+        Integer.getInteger("elite.parallel.threshold", 1000);
+    private static volatile int parallelism =
+        Integer.getInteger("elite.parallel.threads", Runtime.getRuntime().availableProcessors());
+    private static ExecutorService executor;
+
+    /**
+     * Set the minimum number of elements processed in parallel.
+     */
+    public static void setThreshold(int n) {
+        threshold = n;
+    }
+
+    public static int getThreshold() {
+        return threshold;
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the executor used to run parallel operations. The executor
+     * should not be used by the procedures passed to the operations,
+     * or nested operations may wait for each other.
+     */
+    public static synchronized void setExecutor(ExecutorService exec, int nthreads) {
+        executor = exec;
+        parallelism = nthreads;
+    }
+
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(parallelism, new WorkerFactory());
+        }
+        return executor;
+    }
+
+    private static final class Worker extends Thread {
+        Worker(Runnable r, String name) {
+            super(r, name);
+            setDaemon(true);
+        }
+    }
+
+    private static final class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            return new Worker(r, "elite-parallel-" + count.incrementAndGet());
+        }
+    }
+
+    /**
+     * A computation over a range of source elements.
+     */
+    public static abstract class Task<T> {
+        /**
+         * Process the elements from begin (inclusive) to end (exclusive).
+         */
+        protected abstract T run(ELContext elctx, int begin, int end);
+    }
+
+    /**
+     * Split the index range from 0 to size and run the task on each part,
+     * returns the task results in index order.
+     */
+    public static <T> List<T> invoke(final ELContext elctx, int size, final Task<T> task) {
+        int nparts = Math.min(parallelism * 4, size);
+        if (size < threshold || nparts <= 1 || Thread.currentThread() instanceof Worker) {
+            return Collections.singletonList(task.run(elctx, 0, size));
+        }
+
+        // the caller runs the first part while the pool runs the others
+        int step = (size + nparts - 1) / nparts;
+        ExecutorService exec = getExecutor();
+        List<Future<T>> futures = new ArrayList<Future<T>>(nparts);
+        for (int begin = step; begin < size; begin += step) {
+            final int b = begin, e = Math.min(begin + step, size);
+            futures.add(exec.submit(new Callable<T>() {
+                public T call() {
+                    return task.run(DelegatingELContext.get(elctx), b, e);
+                }
+            }));
+        }
+
+        List<T> results = new ArrayList<T>(futures.size() + 1);
+        try {
+            results.add(task.run(elctx, 0, step));
+            for (Future<T> f : futures) {
+                results.add(f.get());
+            }
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ELException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new ELException(cause);
+        } finally {
+            for (Future<T> f : futures) {
+                f.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Returns a random access view of the source elements.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Object> asList(ELContext elctx, Object xs) {
+        if (xs == null) {
+            return Collections.emptyList();
+        } else if (xs instanceof Range && ((Range)xs).isUnbound()) {
+            throw new IllegalArgumentException("unbounded range");
+        } else if (xs instanceof List && xs instanceof RandomAccess) {
+            return (List<Object>)xs;
+        } else if (xs instanceof Object[]) {
+            return Arrays.asList((Object[])xs);
+        } else if (xs.getClass().isArray()) {
+            final Object a = xs;
+            final int size = Array.getLength(a);
+            return new AbstractList<Object>() {
+                public Object get(int index) { return ArrayAccess.get(a, index); }
+                public int size() { return size; }
+            };
+        } else if (xs instanceof Map) {
+            return new ArrayList<Object>(((Map)xs).entrySet());
+        } else {
+            final List<Object> result = new ArrayList<Object>();
+            Reducer.reduce(elctx, coerceToSeq(xs), new Reducer() {
+                public boolean step(ELContext elctx, Object x) {
+                    result.add(x);
+                    return true;
+                }
+            });
+            return result;
+        }
+    }
+
+    // the index of the first element that executed break, the elements
+    // after it are not processed
+    private static final class Limit {
+        private final AtomicInteger index;
+
+        Limit(int size) {
+            index = new AtomicInteger(size);
+        }
+
+        int get() {
+            return index.get();
+        }
+
+        void breakAt(int i) {
+            int n;
+            while (i < (n = index.get()) && !index.compareAndSet(n, i))
+                ;
+        }
+    }
+
+    private static final class Part {
+        final int begin;
+        final List<Object> values = new ArrayList<Object>();
+
+        Part(int begin) {
+            this.begin = begin;
+        }
+    }
+
+    private static Object[] join(List<Part> parts, Limit limit) {
+        List<Object> result = new ArrayList<Object>();
+        for (Part p : parts) {
+            if (p.begin >= limit.get())
+                break;
+            result.addAll(p.values);
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Apply the procedure to each element, returns the results in source
+     * order. An array source yields an array, others yield a sequence.
+     */
+    public static Object map(ELContext elctx, Object xs, final Closure proc) {
+        final List<Object> src = asList(elctx, xs);
+        final Limit limit = new Limit(src.size());
+
+        List<Part> parts = invoke(elctx, src.size(), new Task<Part>() {
+            protected Part run(ELContext elctx, int begin, int end) {
+                Part part = new Part(begin);
+                for (int i = begin; i < end && i < limit.get(); i++) {
+                    try {
+                        part.values.add(proc.call(elctx, src.get(i)));
+                    } catch (Control.Continue c) {
+                        continue;
+                    } catch (Control.Break b) {
+                        limit.breakAt(i);
+                        break;
+                    }
+                }
+                return part;
+            }
+        });
+
+        Object[] result = join(parts, limit);
+        return (xs != null && xs.getClass().isArray()) ? result : ArraySeq.make(result);
+    }
+
+    /**
+     * Returns a sequence of the elements satisfying the predicate, in
+     * source order.
+     */
+    public static Seq filter(ELContext elctx, Object xs, final Closure pred) {
+        final List<Object> src = asList(elctx, xs);
+        final Limit limit = new Limit(src.size());
+
+        List<Part> parts = invoke(elctx, src.size(), new Task<Part>() {
+            protected Part run(ELContext elctx, int begin, int end) {
+                Part part = new Part(begin);
+                for (int i = begin; i < end && i < limit.get(); i++) {
+                    Object x = src.get(i);
+                    try {
+                        if (pred.test(elctx, x)) {
+                            part.values.add(x);
+                        }
+                    } catch (Control.Continue c) {
+                        continue;
+                    } catch (Control.Break b) {
+                        limit.breakAt(i);
+                        break;
+                    }
+                }
+                return part;
+            }
+        });
+
+        return ArraySeq.make(join(parts, limit));
+    }
+
+    /**
+     * Reduce the elements with an associative procedure, the initial
+     * value must be an identity of the procedure.
+     */
+    public static Object reduce(ELContext elctx, Object xs, final Object init, final Closure proc) {
+        final List<Object> src = asList(elctx, xs);
+        if (src.isEmpty()) {
+            return init;
+        }
+
+        List<Object> parts = invoke(elctx, src.size(), new Task<Object>() {
+            protected Object run(ELContext elctx, int begin, int end) {
+                Object acc = init;
+                for (int i = begin; i < end; i++) {
+                    acc = proc.call(elctx, acc, src.get(i));
+                }
+                return acc;
+            }
+        });
+
+        Object result = parts.get(0);
+        for (int i = 1; i < parts.size(); i++) {
+            result = proc.call(elctx, result, parts.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Call the procedure on each element, in no particular order.
+     */
+    public static void each(ELContext elctx, Object xs, final Closure proc) {
+        final List<Object> src = asList(elctx, xs);
+        final Limit limit = new Limit(src.size());
+
+        invoke(elctx, src.size(), new Task<Object>() {
+            protected Object run(ELContext elctx, int begin, int end) {
+                for (int i = begin; i < end && limit.get() == src.size(); i++) {
+                    try {
+                        proc.call(elctx, src.get(i));
+                    } catch (Control.Continue c) {
+                        continue;
+                    } catch (Control.Break b) {
+                        limit.breakAt(i);
+                        break;
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Returns true if the predicate is satisfied by all elements, or by
+     * any element when <code>any</code> is true. Stops as soon as the
+     * result is known.
+     */
+    public static boolean test(ELContext elctx, Object xs, final Closure pred, final boolean any) {
+        final List<Object> src = asList(elctx, xs);
+        final Limit limit = new Limit(src.size());
+
+        invoke(elctx, src.size(), new Task<Object>() {
+            protected Object run(ELContext elctx, int begin, int end) {
+                for (int i = begin; i < end && limit.get() == src.size(); i++) {
+                    if (pred.test(elctx, src.get(i)) == any) {
+                        limit.breakAt(i);
+                        break;
+                    }
+                }
+                return null;
+            }
+        });
+
+        boolean found = limit.get() < src.size();
+        return any ? found : !found;
+    }
+}
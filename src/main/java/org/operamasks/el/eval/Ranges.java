@@ -26,6 +26,7 @@ import java.io.Serializable;
 import elite.lang.Range;
 import elite.lang.Seq;
 import org.operamasks.el.eval.seq.AbstractSeq;
+import org.operamasks.el.eval.seq.Chunked;
 import org.operamasks.el.eval.seq.EmptySeq;
 
 public class Ranges
@@ -85,7 +86,7 @@ public class Ranges
     }
 
     private static abstract class AbstractRange extends AbstractSeq
-        implements Range, RandomAccess, Serializable
+        implements Range, RandomAccess, Chunked, Serializable
     {
         public Object head() {
             return getBegin();
@@ -99,6 +100,26 @@ public class Ranges
             }
         }
 
+        public int chunk(Object[] buf) {
+            long num = getBegin(), end = getEnd(), step = getStep();
+            boolean unbound = isUnbound();
+            int n = 0;
+            while (n < buf.length && (unbound || (step > 0 ? num <= end : num >= end))) {
+                buf[n++] = num;
+                num += step;
+            }
+            return n;
+        }
+
+        public Seq drop(int n) {
+            long begin = getBegin() + n * getStep();
+            if (isUnbound()) {
+                return createUnboundedRange(begin, getStep());
+            } else {
+                return createRange(begin, getEnd(), getStep());
+            }
+        }
+
         public Seq last() {
             if (isUnbound()) {
                 throw new UnsupportedOperationException();
@@ -130,6 +130,14 @@ public class ValueExpressionImpl extends ValueExpression
     }
 
     private EvaluationException wrap(ELContext elctx, EvaluationException ex) {
+        return wrap(elctx, ex, expression);
+    }
+
+    private EvaluationException wrap(ELContext elctx, RuntimeException ex) {
+        return wrap(elctx, ex, expression);
+    }
+
+    static EvaluationException wrap(ELContext elctx, EvaluationException ex, String expression) {
         String message = ex.getRawMessage() + "\n>>> " + expression;
         EvaluationException ex2 = new EvaluationException(elctx, message);
         ex2.initCause(ex.getCause());
@@ -137,7 +145,7 @@ public class ValueExpressionImpl extends ValueExpression
         return ex2;
     }
 
-    private EvaluationException wrap(ELContext elctx, RuntimeException ex) {
+    static EvaluationException wrap(ELContext elctx, RuntimeException ex, String expression) {
         String message = ex.getMessage() + "\n>>>" + expression;
         return new EvaluationException(elctx, message, ex);
     }
@@ -19,6 +19,8 @@ package org.operamasks.el.eval;
 
 import java.util.Map;
 import java.util.LinkedHashMap;
+import java.io.ObjectInputStream;
+import java.io.IOException;
 import javax.el.VariableMapper;
 import javax.el.ValueExpression;
 import org.operamasks.el.eval.closure.LiteralClosure;
@@ -30,11 +32,11 @@ public class VariableMapperImpl extends VariableMapper
     private static final long serialVersionUID = -2203438169608773760L;
 
     public VariableMapperImpl() {
-        map = new LinkedHashMap<String,ValueExpression>();
+        map = new VariableMap();
     }
 
     public VariableMapperImpl(Map<String,Object> m) {
-        map = new LinkedHashMap<String,ValueExpression>();
+        map = new VariableMap();
         for (Map.Entry<String,Object> e : m.entrySet()) {
             Object v = e.getValue();
             ValueExpression ve = (v instanceof ValueExpression)
@@ -59,4 +61,50 @@ public class VariableMapperImpl extends VariableMapper
     public Map<String,ValueExpression> getVariableMap() {
         return map;
     }
+
+    /**
+     * Returns a number that is changed whenever a variable is added,
+     * replaced or removed, including changes made through the variable
+     * map. Changes to the value of a variable don't change the version.
+     */
+    public int getVersion() {
+        return ((VariableMap)map).version;
+    }
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        if (!(map instanceof VariableMap)) {
+            Map<String,ValueExpression> m = map;
+            map = new VariableMap();
+            map.putAll(m);
+        }
+    }
+
+    private static final class VariableMap extends LinkedHashMap<String,ValueExpression> {
+        private static final long serialVersionUID = 5034612380764218337L;
+
+        transient int version;
+
+        public ValueExpression put(String key, ValueExpression value) {
+            version++;
+            return super.put(key, value);
+        }
+
+        public void putAll(Map<? extends String, ? extends ValueExpression> m) {
+            version++;
+            super.putAll(m);
+        }
+
+        public ValueExpression remove(Object key) {
+            version++;
+            return super.remove(key);
+        }
+
+        public void clear() {
+            version++;
+            super.clear();
+        }
+    }
 }
@@ -68,6 +68,7 @@ public class ClassDefinition extends AnnotatedClosure
     private volatile int init_state = NOT_INITIALIZED;
     private transient Thread init_thread = null;
     private transient Object singleton = null;
+    private transient volatile InstancePlan plan = null;
 
     private static final int NOT_INITIALIZED = 0;
     private static final int INITIALIZE_PENDING = 1;
@@ -255,6 +256,11 @@ public class ClassDefinition extends AnnotatedClosure
     }
 
     public boolean isImmutable() {
+        InstancePlan p = plan;
+        return p != null ? p.immutable : checkImmutable();
+    }
+
+    private boolean checkImmutable() {
         Annotation at = getAnnotation("data");
         if (at != null) {
             Object mutable = at.getAttribute("mutable");
@@ -280,8 +286,86 @@ public class ClassDefinition extends AnnotatedClosure
         return expando.get(name);
     }
 
+    @Override
+    public void setMetaData(MetaData metadata) {
+        super.setMetaData(metadata);
+        plan = null;
+    }
+
+    @Override
+    public void addAnnotation(Annotation annotation) {
+        super.addAnnotation(annotation);
+        plan = null;
+    }
+
+    @Override
+    public void removeAnnotation(String type) {
+        super.removeAnnotation(type);
+        plan = null;
+    }
+
+    /**
+     * The instantiation plan of a class. The plan records everything about
+     * object creation that depends only on the class definition, so that
+     * annotations and member definitions are not rescanned for every new
+     * instance. The plan is discarded when the class annotations changed.
+     */
+    private static final class InstancePlan {
+        final boolean singleton;    // the class is annotated with @Singleton
+        final boolean immutable;    // the class is annotated with @data
+        final Annotation[] mixins;  // the @Mixin annotations in declaration order
+        final boolean delegates;    // some members may be annotated with @delegate
+        volatile int capacity;      // the expected size of member map
+
+        InstancePlan(ClassDefinition cls) {
+            List<Annotation> mixins = new ArrayList<Annotation>();
+            for (Annotation at : cls.getAnnotations()) {
+                if (at.getAnnotationType().equals("Mixin")) {
+                    mixins.add(at);
+                }
+            }
+
+            this.singleton = cls.getAnnotation("Singleton") != null;
+            this.immutable = cls.checkImmutable();
+            this.mixins = mixins.toArray(new Annotation[mixins.size()]);
+            this.delegates = !mixins.isEmpty() || hasDelegates(cls.cdef.ivars);
+            this.capacity = cls.cdef.ivars.length + 4;
+        }
+
+        private static boolean hasDelegates(ELNode.DEFINE[] defs) {
+            for (ELNode.DEFINE def : defs) {
+                if (def.meta != null) {
+                    for (ELNode.METADATA md : def.meta.metadata) {
+                        if ("delegate".equals(md.type)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        Map<String,Closure> newMemberMap() {
+            return new LinkedHashMap<String,Closure>(capacity * 4 / 3 + 1);
+        }
+
+        void adjustCapacity(int size) {
+            if (size > capacity) {
+                capacity = size;
+            }
+        }
+    }
+
+    private InstancePlan getPlan() {
+        InstancePlan p = plan;
+        if (p == null) {
+            plan = p = new InstancePlan(this);
+        }
+        return p;
+    }
+
     public Object _new(ELContext elctx, Closure... args) {
-        if (getAnnotation("Singleton") != null) {
+        if (getPlan().singleton) {
             synchronized (this) {
                 if (singleton == null)
                     singleton = newInstance(elctx, args);
@@ -313,6 +397,7 @@ public class ClassDefinition extends AnnotatedClosure
 
         try {
             EvaluationContext ctx = getContext(elctx);
+            InstancePlan plan = getPlan();
 
             // Initialize base object
             ThisObject baseObj = null;
@@ -323,11 +408,11 @@ public class ClassDefinition extends AnnotatedClosure
             }
 
             // Create variable mapper that contains all instance variables
-            Map<String,Closure> vmap = new LinkedHashMap<String,Closure>();
+            Map<String,Closure> vmap = plan.newMemberMap();
             for (ELNode.DEFINE def : cdef.ivars) {
                 vmap.put(def.id, def.defineClosure(ctx));
             }
-            addMixins(elctx, vmap);
+            addMixins(elctx, plan.mixins, vmap);
 
             // Create the this object
             ThisObject thisObj;
@@ -348,10 +433,14 @@ public class ClassDefinition extends AnnotatedClosure
             // Post initialize this object
             initialize(thisObj);
 
+            plan.adjustCapacity(vmap.size());
+
             // create delegated this object
-            Closure[] delegates = getDelegates(vmap);
-            if (delegates != null) {
-                thisObj = new DelegatedThisObject(thisObj, delegates);
+            if (plan.delegates) {
+                Closure[] delegates = getDelegates(vmap);
+                if (delegates != null) {
+                    thisObj = new DelegatedThisObject(thisObj, delegates);
+                }
             }
 
             return thisObj;
@@ -364,18 +453,16 @@ public class ClassDefinition extends AnnotatedClosure
         }
     }
 
-    private void addMixins(ELContext elctx, Map<String,Closure> vmap) {
-        for (Annotation at : getAnnotations()) {
-            if (at.getAnnotationType().equals("Mixin")) {
-                Object value = at.getAttribute("value");
-                if (value instanceof List) {
-                    for (Object e : (List)value) {
-                        mixin(elctx, e, null, vmap);
-                    }
-                } else if (value != null) {
-                    Map rename = (Map)at.getAttribute("rename");
-                    mixin(elctx, value, rename, vmap);
+    private void addMixins(ELContext elctx, Annotation[] mixins, Map<String,Closure> vmap) {
+        for (Annotation at : mixins) {
+            Object value = at.getAttribute("value");
+            if (value instanceof List) {
+                for (Object e : (List)value) {
+                    mixin(elctx, e, null, vmap);
                 }
+            } else if (value != null) {
+                Map rename = (Map)at.getAttribute("rename");
+                mixin(elctx, value, rename, vmap);
             }
         }
     }
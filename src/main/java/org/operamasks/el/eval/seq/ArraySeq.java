@@ -21,7 +21,7 @@ import java.util.RandomAccess;
 import elite.lang.Seq;
 import org.operamasks.el.eval.TypeCoercion;
 
-public class ArraySeq extends AbstractSeq implements RandomAccess
+public class ArraySeq extends AbstractSeq implements RandomAccess, Chunked
 {
     private final Object[] value;
     private final Class type;
@@ -86,4 +86,14 @@ public class ArraySeq extends AbstractSeq implements RandomAccess
     public int size() {
         return count;
     }
+
+    public int chunk(Object[] buf) {
+        int n = Math.min(count, buf.length);
+        System.arraycopy(value, offset, buf, 0, n);
+        return n;
+    }
+
+    public Seq drop(int n) {
+        return make(value, offset+n, count-n);
+    }
 }
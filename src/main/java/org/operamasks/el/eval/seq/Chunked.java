@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.eval.seq;
+
+import elite.lang.Seq;
+
+/**
+ * A sequence whose leading elements can be copied into an array, so that
+ * operations consuming a whole sequence can process a chunk of elements
+ * at a time. Lazy sequence operations still realize one element at a
+ * time, since their procedures may refer to the sequence being realized.
+ */
+public interface Chunked
+{
+    /**
+     * The number of elements processed at a time.
+     */
+    int CHUNK_SIZE = 32;
+
+    /**
+     * Copy the leading elements of this sequence into the buffer. Returns
+     * the number of elements copied, which is at most the buffer length,
+     * and is zero only if this sequence is empty.
+     */
+    int chunk(Object[] buf);
+
+    /**
+     * Returns the sequence following the leading elements, the count
+     * must not exceed the number of elements returned by {@link #chunk}.
+     */
+    Seq drop(int count);
+}
@@ -52,6 +52,14 @@ public class ListSeq extends AbstractSeq
         }
     }
 
+    protected List getList() {
+        return list;
+    }
+
+    protected int getOffset() {
+        return offset;
+    }
+
     public Object head() {
         return list.get(offset);
     }
@@ -154,9 +162,23 @@ public class ListSeq extends AbstractSeq
     }
 }
 
-class RandomAccessListSeq extends ListSeq implements RandomAccess
+class RandomAccessListSeq extends ListSeq implements RandomAccess, Chunked
 {
     public RandomAccessListSeq(List list, int offset) {
         super(list, offset);
     }
+
+    public int chunk(Object[] buf) {
+        List list = getList();
+        int offset = getOffset();
+        int n = Math.min(list.size() - offset, buf.length);
+        for (int i = 0; i < n; i++) {
+            buf[i] = list.get(offset + i);
+        }
+        return n;
+    }
+
+    public Seq drop(int n) {
+        return make(getList(), getOffset() + n);
+    }
 }
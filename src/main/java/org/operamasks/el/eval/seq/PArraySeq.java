@@ -21,8 +21,9 @@ import java.lang.reflect.Array;
 import java.util.RandomAccess;
 import elite.lang.Seq;
 import org.operamasks.el.eval.TypeCoercion;
+import org.operamasks.el.eval.ArrayAccess;
 
-public class PArraySeq extends AbstractSeq implements RandomAccess
+public class PArraySeq extends AbstractSeq implements RandomAccess, Chunked
 {
     private final Object value;
     private final Class type;
@@ -49,26 +50,26 @@ public class PArraySeq extends AbstractSeq implements RandomAccess
     }
 
     public Object head() {
-        return Array.get(value, offset);
+        return ArrayAccess.get(value, offset);
     }
 
     public Object set_head(Object x) {
-        Object old = Array.get(value, offset);
-        Array.set(value, offset, TypeCoercion.coerce(x, type));
+        Object old = ArrayAccess.get(value, offset);
+        ArrayAccess.set(value, offset, TypeCoercion.coerce(x, type));
         return old;
     }
 
     public Object get(int index) {
         if (index < 0 || index >= count)
             throw new IndexOutOfBoundsException("Index:"+index);
-        return Array.get(value, offset + index);
+        return ArrayAccess.get(value, offset + index);
     }
 
     public Object set(int index, Object x) {
         if (index < 0 || index >= count)
             throw new IndexOutOfBoundsException("Index:"+index);
-        Object old = Array.get(value, offset + index);
-        Array.set(value, offset + index, TypeCoercion.coerce(x, type));
+        Object old = ArrayAccess.get(value, offset + index);
+        ArrayAccess.set(value, offset + index, TypeCoercion.coerce(x, type));
         return old;
     }
 
@@ -87,4 +88,16 @@ public class PArraySeq extends AbstractSeq implements RandomAccess
     public int size() {
         return count;
     }
+
+    public int chunk(Object[] buf) {
+        int n = Math.min(count, buf.length);
+        for (int i = 0; i < n; i++) {
+            buf[i] = ArrayAccess.get(value, offset + i);
+        }
+        return n;
+    }
+
+    public Seq drop(int n) {
+        return make(value, offset+n, count-n);
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.eval.seq;
+
+import javax.el.ELContext;
+import elite.lang.Seq;
+
+/**
+ * Receives the elements of a sequence one at a time.
+ *
+ * <p>The cells of lazy sequences are realized and kept as the reduction
+ * goes, so a sequence reduced twice evaluates its elements only once.</p>
+ */
+public abstract class Reducer
+{
+    /**
+     * Accept an element. Returns false to stop the reduction.
+     */
+    public abstract boolean step(ELContext elctx, Object x);
+
+    /**
+     * Pass the elements of a sequence to a reducer, a chunk at a time
+     * for chunked sequences. Returns false if the reducer stopped the
+     * reduction.
+     */
+    public static boolean reduce(ELContext elctx, Seq seq, Reducer r) {
+        Object[] buf = null;
+        Seq s = seq;
+
+        while (true) {
+            if (s instanceof Chunked) {
+                Chunked c = (Chunked)s;
+                if (buf == null)
+                    buf = new Object[Chunked.CHUNK_SIZE];
+                int n = c.chunk(buf);
+                if (n <= 0)
+                    return true;
+                for (int i = 0; i < n; i++) {
+                    if (!r.step(elctx, buf[i]))
+                        return false;
+                }
+                s = c.drop(n);
+                continue;
+            }
+
+            if (s.isEmpty())
+                return true;
+            if (!r.step(elctx, s.head()))
+                return false;
+            s = s.tail();
+        }
+    }
+}
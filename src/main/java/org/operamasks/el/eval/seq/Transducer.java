@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.eval.seq;
+
+import javax.el.ELContext;
+import elite.lang.Closure;
+import org.operamasks.el.eval.Control;
+
+/**
+ * Transforms the reducer receiving the elements of a reduction.
+ *
+ * <p>A chain of transducers applies map, filter, take and takeWhile
+ * operations while the source is reduced, in a single pass and without
+ * building the lazy sequences in between. The results are not kept, so a
+ * procedure is called again each time the chain is reduced. Use the lazy
+ * sequence operations for results that are shared or that refer to
+ * themselves.</p>
+ */
+public abstract class Transducer
+{
+    /**
+     * Returns a reducer that transforms the elements and passes the
+     * results to the next reducer. A new reducer is returned for each
+     * reduction, so stateful transducers may keep their state in it.
+     */
+    public abstract Reducer apply(Reducer next);
+
+    /**
+     * Returns a transducer that applies this transducer and then the
+     * given one.
+     */
+    public Transducer then(final Transducer next) {
+        final Transducer first = this;
+        return new Transducer() {
+            public Reducer apply(Reducer r) {
+                return first.apply(next.apply(r));
+            }
+        };
+    }
+
+    public static Transducer map(final Closure proc) {
+        return new Transducer() {
+            public Reducer apply(final Reducer next) {
+                return new Reducer() {
+                    public boolean step(ELContext elctx, Object x) {
+                        Object y;
+                        try {
+                            y = proc.call(elctx, x);
+                        } catch (Control.Continue c) {
+                            return true;
+                        } catch (Control.Break b) {
+                            return false;
+                        }
+                        return next.step(elctx, y);
+                    }
+                };
+            }
+        };
+    }
+
+    public static Transducer filter(final Closure pred) {
+        return new Transducer() {
+            public Reducer apply(final Reducer next) {
+                return new Reducer() {
+                    public boolean step(ELContext elctx, Object x) {
+                        boolean selected;
+                        try {
+                            selected = pred.test(elctx, x);
+                        } catch (Control.Continue c) {
+                            return true;
+                        } catch (Control.Break b) {
+                            return false;
+                        }
+                        return !selected || next.step(elctx, x);
+                    }
+                };
+            }
+        };
+    }
+
+    public static Transducer take(final int n) {
+        return new Transducer() {
+            public Reducer apply(final Reducer next) {
+                return new Reducer() {
+                    private int left = n;
+
+                    public boolean step(ELContext elctx, Object x) {
+                        // stop after the last element, not before the next
+                        if (left <= 0 || !next.step(elctx, x))
+                            return false;
+                        return --left > 0;
+                    }
+                };
+            }
+        };
+    }
+
+    public static Transducer takeWhile(final Closure pred) {
+        return new Transducer() {
+            public Reducer apply(final Reducer next) {
+                return new Reducer() {
+                    public boolean step(ELContext elctx, Object x) {
+                        return pred.test(elctx, x) && next.step(elctx, x);
+                    }
+                };
+            }
+        };
+    }
+}
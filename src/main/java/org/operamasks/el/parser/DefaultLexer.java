@@ -20,6 +20,7 @@ package org.operamasks.el.parser;
 import java.math.BigInteger;
 import java.math.BigDecimal;
 import java.util.Map;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
@@ -158,10 +159,39 @@ public class DefaultLexer extends Lexer
      * Make a deep clone to ensure not shared with other lexers.
      */
     public void dirtyCopy() {
-        if (start == shared.start)
+        if (start == shared.start || forked)
             start = start.copy();
-        if (operators == shared.operators)
+        if (operators == shared.operators || forked)
             operators = new HashMap<String,Operator>(operators);
+        forked = false;
+    }
+
+    // true if operators are shared with the lexer this lexer forked from
+    private boolean forked;
+
+    /**
+     * Returns a lexer that shares operators with this lexer but has its
+     * own scanning state, so the two lexers can be used by different
+     * threads. The shared operators are copied on first change.
+     */
+    DefaultLexer fork() {
+        DefaultLexer lexer = newFork();
+        lexer.start          = this.start;
+        lexer.operators      = this.operators;
+        lexer.allow_keywords = this.allow_keywords;
+        lexer.forked         = true;
+        return lexer;
+    }
+
+    protected DefaultLexer newFork() {
+        return new DefaultLexer();
+    }
+
+    /**
+     * Returns all operators known by this lexer.
+     */
+    Collection<Operator> getOperators() {
+        return operators.values();
     }
 
     /**
@@ -558,6 +588,8 @@ public class DefaultLexer extends Lexer
                 s.stringValue = "";
                 return;
             }
+        } else if (scanSimpleString(s, delim)) {
+            return;
         }
 
         while (true) {
@@ -651,6 +683,32 @@ public class DefaultLexer extends Lexer
         }
     }
 
+    /**
+     * Scan a single line string without escape characters directly over
+     * the input buffer. Returns false if the string must be scanned
+     * character by character, leaving the scanner unchanged.
+     */
+    private static boolean scanSimpleString(Scanner s, int delim) {
+        int start = s.index();
+        if (start < 0) {
+            return false;
+        }
+
+        char[] buf = s.buffer();
+        int len = s.bufferLength();
+        for (int i = start; i < len; i++) {
+            char c = buf[i];
+            if (c == delim) {
+                s.stringValue = new String(buf, start, i - start);
+                s.skipTo(i + 1);
+                return true;
+            } else if (c == '\\' || c == '\r' || c == '\n') {
+                return false;
+            }
+        }
+        return false;
+    }
+
     /**
      * Scan a character.
      */
@@ -682,6 +740,19 @@ public class DefaultLexer extends Lexer
      * of the identifier.
      */
     protected void scanIdentifier(Scanner s) {
+        int start = s.index();
+        if (start >= 0) {
+            // scan directly over the input buffer
+            char[] buf = s.buffer();
+            int len = s.bufferLength();
+            int end = start + 1;
+            while (end < len && isIdentifierPart(buf[end]))
+                end++;
+            s.skipTo(end);
+            setIdentifier(s, s.symbol(start, end - start));
+            return;
+        }
+
         sp = 0;
 
         while (true) {
@@ -706,20 +777,35 @@ public class DefaultLexer extends Lexer
 
               default:
                 if (!Character.isJavaIdentifierPart((char)s.ch)) {
-                    String str = sbuf().intern();
-                    s.idValue = str;
-                    if (allow_keywords) {
-                        Integer key = s.keywords.get(str);
-                        s.token = (key != null) ? key : IDENT;
-                    } else {
-                        s.token = IDENT;
-                    }
+                    setIdentifier(s, sbuf().intern());
                     return;
                 }
             }
         }
     }
 
+    private void setIdentifier(Scanner s, String str) {
+        s.idValue = str;
+        if (allow_keywords) {
+            Integer key = s.keywords.get(str);
+            s.token = (key != null) ? key : IDENT;
+        } else {
+            s.token = IDENT;
+        }
+    }
+
+    // The ASCII identifier characters, including the quote character
+    private static final boolean[] ID_PART = new boolean[128];
+    static {
+        for (char c = 0; c < 128; c++) {
+            ID_PART[c] = c == '\'' || Character.isJavaIdentifierPart(c);
+        }
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return c < 128 ? ID_PART[c] : Character.isJavaIdentifierPart(c);
+    }
+
     /**
      * Scan the next token.
      */
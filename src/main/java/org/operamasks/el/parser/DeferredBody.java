@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.parser;
+
+import java.io.ObjectStreamException;
+import javax.el.MethodInfo;
+import javax.el.ValueReference;
+import elite.lang.Closure;
+import org.operamasks.el.eval.EvaluationContext;
+
+/**
+ * A procedure body that is parsed on first use. The node delegates all
+ * evaluations to the parsed body, and is replaced by the parsed body
+ * when serialized.
+ */
+final class DeferredBody extends ELNode
+{
+    private static final long serialVersionUID = 3128322746630082606L;
+
+    private transient Parser state;
+    private transient volatile ELNode body;
+
+    DeferredBody(int pos, Parser state) {
+        super(Token.LBRACE, pos);
+        this.state = state;
+    }
+
+    ELNode body() {
+        ELNode b = body;
+        if (b == null) {
+            synchronized (this) {
+                if ((b = body) == null) {
+                    body = b = state.parseDeferredBody();
+                    state = null;
+                }
+            }
+        }
+        return b;
+    }
+
+    public Object getValue(EvaluationContext context) {
+        return body().getValue(context);
+    }
+
+    public ValueReference getValueReference(EvaluationContext context) {
+        return body().getValueReference(context);
+    }
+
+    public Class<?> getType(EvaluationContext context) {
+        return body().getType(context);
+    }
+
+    public boolean isReadOnly(EvaluationContext context) {
+        return body().isReadOnly(context);
+    }
+
+    public void setValue(EvaluationContext context, Object value) {
+        body().setValue(context, value);
+    }
+
+    public MethodInfo getMethodInfo(EvaluationContext context) {
+        return body().getMethodInfo(context);
+    }
+
+    public Object invokeMethod(EvaluationContext context, Object[] args) {
+        return body().invokeMethod(context, args);
+    }
+
+    public Object invoke(EvaluationContext context, Closure[] args) {
+        return body().invoke(context, args);
+    }
+
+    boolean invokeTail(EvaluationContext context, TailCall call, Closure[] args) {
+        return body().invokeTail(context, call, args);
+    }
+
+    public Closure closure(EvaluationContext context) {
+        return body().closure(context);
+    }
+
+    public void accept(Visitor v) {
+        body().accept(v);
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return body();
+    }
+}
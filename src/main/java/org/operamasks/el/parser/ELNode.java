@@ -3038,7 +3038,7 @@ public abstract class ELNode implements Serializable
                 x = coerce(x, y.getClass().getComponentType());
                 int length = Array.getLength(y);
                 for (int i = 0; i < length; i++) {
-                    if (EQ.equals(elctx, x, Array.get(y, i))) {
+                    if (EQ.equals(elctx, x, ArrayAccess.get(y, i))) {
                         return true;
                     }
                 }
@@ -3209,15 +3209,15 @@ public abstract class ELNode implements Serializable
                     // concatenate arraies with different type
                     int ylen = Array.getLength(y);
                     Object[] a = new Object[xlen + ylen];
-                    for (int i = 0; i < xlen; i++) a[i] = Array.get(x, i);
-                    for (int i = 0; i < ylen; i++) a[xlen+i] = Array.get(y, i);
+                    for (int i = 0; i < xlen; i++) a[i] = ArrayAccess.get(x, i);
+                    for (int i = 0; i < ylen; i++) a[xlen+i] = ArrayAccess.get(y, i);
                     return a;
                 }
                 else {
                     // concatenate an array with an element
                     Object a = Array.newInstance(c, xlen+1);
                     System.arraycopy(x, 0, a, 0, xlen);
-                    Array.set(a, xlen, coerce(elctx, y, c));
+                    ArrayAccess.set(a, xlen, coerce(elctx, y, c));
                     return a;
                 }
             }
@@ -3237,7 +3237,7 @@ public abstract class ELNode implements Serializable
                 Class c = y.getClass().getComponentType();
                 int len = Array.getLength(y);
                 Object a = Array.newInstance(c, len+1);
-                Array.set(a, 0, coerce(elctx, x, c));
+                ArrayAccess.set(a, 0, coerce(elctx, x, c));
                 System.arraycopy(y, 0, a, 1, len);
                 return a;
             }
@@ -4507,7 +4507,7 @@ public abstract class ELNode implements Serializable
             for (int i = 0, len = Array.getLength(xs); i < len; i++) {
                 try {
                     idx.setValue(elctx, i);
-                    var.setValue(elctx, Array.get(xs, i));
+                    var.setValue(elctx, ArrayAccess.get(xs, i));
                     body.pos(f).getValue(ctx);
                 } catch (Control.Break b) {
                     break;
@@ -4523,7 +4523,7 @@ public abstract class ELNode implements Serializable
 
             for (int i = 0, len = Array.getLength(xs); i < len; i++) {
                 try {
-                    var.setValue(elctx, Array.get(xs, i));
+                    var.setValue(elctx, ArrayAccess.get(xs, i));
                     body.pos(f).getValue(ctx);
                 } catch (Control.Break b) {
                     break;
@@ -5499,7 +5499,7 @@ public abstract class ELNode implements Serializable
                 } else {
                     for (int i = 0; i < init.length; i++) {
                         Object value = init[i].getValue(context);
-                        Array.set(result, i, coerce(value, cls));
+                        ArrayAccess.set(result, i, coerce(value, cls));
                     }
                 }
             }
@@ -5656,7 +5656,7 @@ public abstract class ELNode implements Serializable
                 throw runtimeError(context.getELContext(), _T(EL_TUPLE_PATTERN_NOT_MATCH));
             }
             for (int i = 0; i < len; i++) {
-                elems[i].setValue(context, Array.get(value, i));
+                elems[i].setValue(context, ArrayAccess.get(value, i));
             }
         }
 
@@ -5693,7 +5693,7 @@ public abstract class ELNode implements Serializable
             }
 
             for (int i = 0; i < len; i++) {
-                if (!((Pattern)elems[i]).matches(context, Array.get(arg, i))) {
+                if (!((Pattern)elems[i]).matches(context, ArrayAccess.get(arg, i))) {
                     return false;
                 }
             }
@@ -21,6 +21,9 @@ import java.util.List;
 import java.util.Set;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.io.Reader;
 import java.io.Serializable;
 import javax.el.ELContext;
 import javax.el.ValueExpression;
@@ -113,14 +116,11 @@ class Grammar implements Serializable
         }
     }
 
-    // 内部分析器
-    private transient Parser S;
+    // 当前文法所使用的运算符管理器, 每次分析时复制使用
+    private transient volatile DefaultLexer current;
 
-    // 内部分析器所使用的运算符管理器
-    private transient Lexer original;
-
-    // 当前文法所使用的运算符管理器
-    private transient Lexer current;
+    // 词法规则编译生成的状态机
+    private LexBuilder.Machine machine;
 
     // 初始代码块
     List<ELProgram> blocks;
@@ -131,9 +131,6 @@ class Grammar implements Serializable
     // 词法宏片段, 用于构造词法分析器
     Map<String,String> fragments;
 
-    // 超前查看符号
-    private transient int yy_lookahead;
-
     /* Constants used in the tables. Note that the parsing algorithm assumes that
      * the start state is State 0. Consequently, since the start state is shifted
      * only once when we start up the parser, we can use 0 to signify an accept.
@@ -149,50 +146,67 @@ class Grammar implements Serializable
     // 状态栈和值栈的最大深度
     static final int YYMAXDEPTH = 256;
 
-    // 状态栈及值栈
-    private transient int[]     yy_stack = new int[YYMAXDEPTH];
-    private transient Closure[] yy_vstack = new Closure[YYMAXDEPTH];
-    private transient int       yy_sp;
-
-    // 动作返回值
-    private transient Closure yy_val;
-
-    // 终结符词素
-    private transient Closure yy_lval;
-
     /* Yy_stok is used for operator declaration. It is indexed by the internal
      * value used for a token (as used for a column index in the transition matrix)
      * and evaluates to a string naming that token.
      */
     YYSTOK[][] yy_stok;
 
-    /* The yy_action table is action part of the LALR(1) transition matrix. It's
-     * compressed and can be accessed using the yy_next() subroutine, below.
+    /* The parse tables are stored as comb vectors. The nonempty entries of
+     * each row are overlaid into a single array, with the row starting at
+     * offset base[row]. An entry belongs to the row if the check array at
+     * the same offset holds the row number, otherwise the row default is
+     * used:
      *
-     *             yya000[]={       5,3    ,    2,2    ,    1,1    };
-     * state number ---+            | |
-     * input symbol (terminal)------+ |
-     * action-------------------------+
+     *     i = base[row] + col;
+     *     value = (i >= 0 && i < check.length && check[i] == row)
+     *           ? next[i] : dflt[row];
+     */
+    static final class YYTAB implements Serializable {
+        final int[] base;
+        final int[] check;
+        final int[] next;
+        final int[] dflt;
+
+        private static final long serialVersionUID = 4630198376021856470L;
+
+        YYTAB(int[] base, int[] check, int[] next, int[] dflt) {
+            this.base  = base;
+            this.check = check;
+            this.next  = next;
+            this.dflt  = dflt;
+        }
+
+        int get(int row, int col) {
+            int i = base[row] + col;
+            if (i >= 0 && i < check.length && check[i] == row)
+                return next[i];
+            return dflt[row];
+        }
+    }
+
+    /* The yy_action table is action part of the LALR(1) transition matrix.
+     * It's indexed by the current state and the lookahead symbol:
      *
-     * action = yy_next(yy_action, cur_state, lookahead_symbol);
+     * action = yy_action.get(cur_state, lookahead_symbol);
      *
      *     action <  0   -- Reduce by production n
      *     action == 0   -- Accept (ie. reduce by production 0)
      *     action >  0   -- Shift to state n
      *     action == YYF -- error
+     *
+     * There are no default reductions since a failed action is used to
+     * find out the end of embedded input and the kind of lookahead token.
      */
-    int[][] yy_action;
+    YYTAB yy_action;
 
     /* The yy_goto table is goto part of the LALR(1) transition matrix. It's
-     * compressed and can be accessed using the yy_next() subroutine, declared below.
+     * indexed by nonterminal and the uncovered state, and each nonterminal
+     * defaults to its most common goto state:
      *
-     *             yyg000[]={       5,3    ,    2,2    ,    1,1    };
-     * uncovered state-+            | |
-     * nonterminal------------------+ |
-     * goto this state----------------+
-     * goto_state = yy_next(yy_goto, cur_state, nonterminal);
+     * goto_state = yy_goto.get(nonterminal, cur_state);
      */
-    int[][] yy_goto;
+    YYTAB yy_goto;
 
     /* The yy_lhs array is used for reductions. It is indexed by production number
      * and holds the associated left-hand side, adjusted so that the number can be
@@ -208,17 +222,6 @@ class Grammar implements Serializable
     // 动作表, 规约时调用动作代码
     YYACT[] yy_acts;
 
-    // 调用动作代码所使用的环境
-    private transient EvaluationContext env;
-
-    // 用于错误恢复的状态信息
-    private transient int[]       xx_stack = new int[YYMAXDEPTH];
-    private transient Closure[]   xx_vstack = new Closure[YYMAXDEPTH];
-    private transient int         xx_sp;
-    private transient Closure     xx_val;
-    private transient Closure     xx_lval;
-    private transient Scanner     state;
-
     /*------------------------------------------------------------------------*/
 
     public Set<String> getPrefixKeywords() {
@@ -229,376 +232,490 @@ class Grammar implements Serializable
         return infix_keys;
     }
 
-    /* Next-state routine for the compressed tables. Given current state and
-     * input symbol (inp), return next state.
+    /**
+     * General-purpose LALR parser.
      */
-    private int yy_next(int[][] table, int cur_state, int inp) {
-        int[] p = table[cur_state];
-
-        if (p != null)
-            for (int i = 0, n = p.length; i < n; i += 2)
-                if (inp == p[i])
-                    return p[i+1];
-        return YY_FAIL;
-    }
-
-    private int yy_next_action(int inp) {
-        return yy_next(yy_action, yy_stack[yy_sp], inp);
-    }
-
-    private void yy_shift(int new_state) {
-        yy_stack [--yy_sp] = new_state;
-        yy_vstack[  yy_sp] = yy_lval;
+    public Object parse(Parser parser) {
+        YYPARSER p = new YYPARSER(parser);
+        p.yy_save();
+        p.yy_lookahead = p.yy_nexttoken();
+        return p.do_parse();
     }
 
-    private void yy_reduce(int prod_num, int amount) {
-        int next_state;
-
-        // Pop n items off the state stack and the value stack
-        yy_sp  += amount;
+    /**
+     * Parse a standalone input text.
+     */
+    public Object parse(String input) {
+        Parser parser = new Parser(input);
+        YYPARSER p = new YYPARSER(parser);
+        p.yy_save();
 
-        next_state = yy_next(yy_goto, yy_stack[yy_sp], yy_lhs[prod_num]);
+        parser.nextchar();
+        parser.scan();
 
-        // Push next state
-        yy_stack [--yy_sp] = next_state;
-        yy_vstack[  yy_sp] = yy_val;
+        p.yy_lookahead = p.yy_nexttoken();
+        Object result = p.do_parse();
+        parser.expect(Token.EOI);
+        return result;
     }
 
-    private void yy_init_stack() {
-        if (yy_stack == null) {
-            yy_stack  = new int[YYMAXDEPTH];
-            yy_vstack = new Closure[YYMAXDEPTH];
-            xx_stack  = new int[YYMAXDEPTH];
-            xx_vstack = new Closure[YYMAXDEPTH];
-        }
+    /**
+     * Parse a character stream. The stream is read incrementally and the
+     * input already accepted by the parser is discarded.
+     */
+    public Object parse(Reader input) {
+        Parser parser = new Parser(input);
+        YYPARSER p = new YYPARSER(parser, true);
+        p.yy_save();
 
-        yy_sp = YYMAXDEPTH - 1;
-        yy_stack [yy_sp] = 0;
-        yy_vstack[yy_sp] = null;
+        parser.nextchar();
+        parser.scan();
 
-        yy_val = null;
-        yy_lval = null;
+        p.yy_lookahead = p.yy_nexttoken();
+        Object result = p.do_parse();
+        parser.expect(Token.EOI);
+        return result;
     }
 
-    private void yy_init_occs(Parser parser) {
-        this.S        = parser;
-        this.state    = S.save();
-        this.original = S.lexer;
-
-        if (current == null) {
-            LexBuilder builder = new LexBuilder();
-            for (Map.Entry<String,String> e : fragments.entrySet())
-                builder.add_macro(e.getKey(), e.getValue());
-            for (int i = 0; i < yy_stok.length; i++) {
-                if (yy_stok[i] != null)
-                    for (YYSTOK stok : yy_stok[i])
-                        if (stok.rule)
-                            builder.add_rule(stok.value, stok.pos, i);
-                        else
-                            builder.add_str(stok.value, stok.pos, i);
+    /**
+     * Parse a character stream as a sequence of sentences of this grammar.
+     * Each sentence is parsed when the iterator is advanced, so the input
+     * can be much larger than the memory.
+     */
+    public Iterator<Object> parseAll(Reader input) {
+        final Parser parser = new Parser(input);
+        parser.nextchar();
+        parser.scan();
+
+        return new Iterator<Object>() {
+            public boolean hasNext() {
+                return parser.token != Token.EOI;
             }
-            current = builder.getLexer();
-        }
 
-        S.lexer = current;
-        if (S.token == Token.KEYWORD)
-            S.rescan();
+            public Object next() {
+                if (parser.token == Token.EOI)
+                    throw new NoSuchElementException();
 
-        ELContext elctx = ELEngine.createELContext();
-        ClassResolver.getInstance(elctx).addImport("elite.ast.*");
-        MethodResolver.getInstance(elctx).addGlobalMethods(Expression.class);
-        env = new EvaluationContext(elctx);
+                int start = parser.prev;
+                YYPARSER p = new YYPARSER(parser, true);
+                parser.rescan();
+                p.yy_save();
+                p.yy_lookahead = p.yy_nexttoken();
+                Object result = p.do_parse();
 
-        if (blocks != null) {
-            for (ELProgram prog : blocks) {
-                prog.execute(elctx);
+                if (parser.prev == start && parser.token != Token.EOI) {
+                    // nothing was accepted, the input is not a sentence
+                    throw parser.parseError("syntax error");
+                }
+                return result;
             }
-        }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
-    private void yy_restore_occs() {
-        S.lexer = original;
-        S.rescan();
+    public Object parse_infix(Parser parser, ELNode expr) {
+        YYPARSER p = new YYPARSER(parser);
+        p.yy_lookahead = _EXPR_;
+        p.yy_lval = new ExpressionClosure(expr);
+        return p.do_parse();
     }
 
     /**
-     * General-purpose LALR parser.
+     * Returns a lexer for a new parse. The lexer is built from the lexical
+     * rules on first use, and each parse gets its own copy that shares the
+     * operators and the state machine with the others.
      */
-    public Object parse(Parser parser) {
-        yy_init_stack();
-        yy_init_occs(parser);
-
-        yy_save();
-        yy_lookahead = yy_nexttoken();
-
-        return do_parse();
+    private DefaultLexer yy_lexer() {
+        DefaultLexer lexer = current;
+        if (lexer == null) {
+            synchronized (this) {
+                if ((lexer = current) == null) {
+                    LexBuilder builder = new LexBuilder();
+                    for (Map.Entry<String,String> e : fragments.entrySet())
+                        builder.add_macro(e.getKey(), e.getValue());
+                    for (int i = 0; i < yy_stok.length; i++) {
+                        if (yy_stok[i] != null)
+                            for (YYSTOK stok : yy_stok[i])
+                                if (stok.rule)
+                                    builder.add_rule(stok.value, stok.pos, i);
+                                else
+                                    builder.add_str(stok.value, stok.pos, i);
+                    }
+                    builder.setMachine(machine);
+                    lexer = (DefaultLexer)builder.getLexer();
+                    machine = builder.getMachine();
+                    current = lexer;
+                }
+            }
+        }
+        return lexer.fork();
     }
 
     /**
-     * Parse a standalone input text.
+     * The state of a single parse. The grammar tables are read only, so
+     * a grammar can be used by any number of parses at the same time,
+     * including nested parses started from the grammar actions.
      */
-    public Object parse(String input) {
-        Parser parser;
-        Object result;
+    private final class YYPARSER {
+        // 内部分析器
+        private final Parser S;
 
-        parser = new Parser(input);
-        yy_init_stack();
-        yy_init_occs(parser);
-        yy_save();
+        // 内部分析器所使用的运算符管理器
+        private final Lexer original;
 
-        parser.nextchar();
-        parser.scan();
+        // 当前文法所使用的运算符管理器
+        private final Lexer current;
 
-        yy_lookahead = yy_nexttoken();
-        result = do_parse();
-        parser.expect(Token.EOI);
+        // 超前查看符号
+        private int yy_lookahead;
 
-        return result;
-    }
-
-    public Object parse_infix(Parser parser, ELNode expr) {
-        yy_init_stack();
-        yy_init_occs(parser);
-
-        yy_lookahead = _EXPR_;
-        yy_lval = new ExpressionClosure(expr);
+        // 状态栈及值栈
+        private final int[]     yy_stack  = new int[YYMAXDEPTH];
+        private final Closure[] yy_vstack = new Closure[YYMAXDEPTH];
+        private int             yy_sp;
 
-        return do_parse();
-    }
+        // 动作返回值
+        private Closure yy_val;
 
-    private Object do_parse() {
-        int act_num;
-        int rhs_len;
+        // 终结符词素
+        private Closure yy_lval;
 
-        while (true) {
-            act_num = yy_next_action(yy_lookahead);
+        // 调用动作代码所使用的环境
+        private final EvaluationContext env;
 
-            if (act_num == YY_FAIL) { // error recovery
-                int tok = yy_lookahead;
-                if (yy_lookahead != _EOI_) {
-                    yy_restore();
-                    act_num = yy_next_action(yy_lookahead = _EOI_);
-                }
-                if (act_num == YY_FAIL) {
-                    yy_error(tok); // no return
-                    return null;
-                }
-            }
+        // 用于错误恢复的状态信息
+        private final int[]     xx_stack  = new int[YYMAXDEPTH];
+        private final Closure[] xx_vstack = new Closure[YYMAXDEPTH];
+        private int             xx_sp;
+        private Closure         xx_val;
+        private Closure         xx_lval;
+        private final Scanner   state;
 
-            if (act_num > 0) {
-                yy_shift(act_num);
-                yy_save();
-                yy_lookahead = yy_nexttoken();
-            } else {
-                act_num = -act_num;
-                rhs_len = yy_reduce[act_num];
-                yy_val  = rhs_len != 0 ? yy_vstack[yy_sp + rhs_len - 1] : null;
+        // 流式输入时, 已接受的输入可以丢弃
+        private final boolean streaming;
 
-                yy_act(act_num);
+        YYPARSER(Parser parser) {
+            this(parser, false);
+        }
 
-                if (act_num == YY_ACCEPT)
-                    break;
-                else
-                    yy_reduce(act_num, rhs_len);
+        YYPARSER(Parser parser, boolean streaming) {
+            this.S         = parser;
+            this.streaming = streaming;
+            this.state     = S.save();
+            this.original  = S.lexer;
+            this.current   = yy_lexer();
+
+            yy_sp = YYMAXDEPTH - 1;
+            yy_stack [yy_sp] = 0;
+            yy_vstack[yy_sp] = null;
+
+            S.lexer = current;
+            if (S.token == Token.KEYWORD)
+                S.rescan();
+
+            ELContext elctx = ELEngine.createELContext();
+            ClassResolver.getInstance(elctx).addImport("elite.ast.*");
+            MethodResolver.getInstance(elctx).addGlobalMethods(Expression.class);
+            env = new EvaluationContext(elctx);
+
+            if (blocks != null) {
+                for (ELProgram prog : blocks) {
+                    prog.execute(elctx);
+                }
             }
         }
 
-        yy_restore_occs();
+        private int yy_next_action(int inp) {
+            return yy_action.get(yy_stack[yy_sp], inp);
+        }
 
-        if (yy_val != null) {
-            if (yy_val instanceof ExpressionClosure) {
-                return ((ExpressionClosure)yy_val).getNode();
-            } else {
-                return yy_val.getValue(env.getELContext());
-            }
+        private void yy_shift(int new_state) {
+            yy_stack [--yy_sp] = new_state;
+            yy_vstack[  yy_sp] = yy_lval;
         }
 
-        return null;
-    }
+        private void yy_reduce(int prod_num, int amount) {
+            int next_state;
+
+            // Pop n items off the state stack and the value stack
+            yy_sp  += amount;
 
-    private void yy_error(int tok) {
-        String errtok, errmsg;
+            next_state = yy_goto.get(yy_lhs[prod_num], yy_stack[yy_sp]);
 
-        if (yy_stok[tok] != null) {
-            errtok = yy_stok[tok][0].name; // FIXME
-        } else if (yy_lval instanceof LiteralClosure) {
-            errtok = yy_lval.getValue(null).toString();
-        } else {
-            errtok = null;
+            // Push next state
+            yy_stack [--yy_sp] = next_state;
+            yy_vstack[  yy_sp] = yy_val;
         }
 
-        if (errtok != null) {
-            errmsg = "syntax error, unexpected " + errtok;
-        } else {
-            errmsg = "syntax error";
+        private void yy_restore_occs() {
+            S.lexer = original;
+            S.rescan();
         }
 
-        throw S.parseError(errmsg);
-    }
+        private Object do_parse() {
+            int act_num;
+            int rhs_len;
 
-    private int yy_nexttoken() {
-        Operator op;
+            while (true) {
+                act_num = yy_next_action(yy_lookahead);
 
-        yy_lval = null;
+                if (act_num == YY_FAIL) { // error recovery
+                    int tok = yy_lookahead;
+                    if (yy_lookahead != _EOI_) {
+                        yy_restore();
+                        act_num = yy_next_action(yy_lookahead = _EOI_);
+                    }
+                    if (act_num == YY_FAIL) {
+                        yy_error(tok); // no return
+                        return null;
+                    }
+                }
+
+                if (act_num > 0) {
+                    yy_shift(act_num);
+                    yy_save();
+                    yy_lookahead = yy_nexttoken();
+                } else {
+                    act_num = -act_num;
+                    rhs_len = yy_reduce[act_num];
+                    yy_val  = rhs_len != 0 ? yy_vstack[yy_sp + rhs_len - 1] : null;
+
+                    yy_act(act_num);
 
-        if (S.token == Token.EOI) {
-            return _EOI_;
+                    if (act_num == YY_ACCEPT)
+                        break;
+                    else
+                        yy_reduce(act_num, rhs_len);
+                }
+            }
+
+            yy_restore_occs();
+
+            if (yy_val != null) {
+                if (yy_val instanceof ExpressionClosure) {
+                    return ((ExpressionClosure)yy_val).getNode();
+                } else {
+                    return yy_val.getValue(env.getELContext());
+                }
+            }
+
+            return null;
         }
 
-        if (S.operator != null) {
-            op = S.operator;
-        } else if (S.idValue != null) {
-            op = S.getOperator(S.idValue);
-        } else {
-            op = null;
+        private void yy_error(int tok) {
+            String errtok, errmsg;
+
+            if (yy_stok[tok] != null) {
+                errtok = yy_stok[tok][0].name; // FIXME
+            } else if (yy_lval instanceof LiteralClosure) {
+                errtok = yy_lval.getValue(null).toString();
+            } else {
+                errtok = null;
+            }
+
+            if (errtok != null) {
+                errmsg = "syntax error, unexpected " + errtok;
+            } else {
+                errmsg = "syntax error";
+            }
+
+            throw S.parseError(errmsg);
         }
 
-        if (op != null && op.token == Token.LALR) {
-            if (op.token2 == _EXPR_) {
-                yy_lval = new ExpressionClosure(parse_embed_expression());
-                return _EXPR_;
+        private int yy_nexttoken() {
+            Operator op;
+
+            yy_lval = null;
+
+            if (S.token == Token.EOI) {
+                return _EOI_;
+            }
+
+            if (S.operator != null) {
+                op = S.operator;
+            } else if (S.idValue != null) {
+                op = S.getOperator(S.idValue);
             } else {
+                op = null;
+            }
+
+            if (op != null && op.token == Token.LALR) {
+                if (op.token2 == _EXPR_) {
+                    yy_lval = new ExpressionClosure(parse_embed_expression());
+                    return _EXPR_;
+                } else {
+                    S.scan();
+                    yy_lval = new LiteralClosure(op.name);
+                    return op.token2;
+                }
+            }
+
+            if (S.token == Token.IDENT && yy_next_action(_IDENT_) != YY_FAIL) {
+                // The current production accepts an identifier
+                yy_lval = new LiteralClosure(Symbol.valueOf(S.idValue));
                 S.scan();
-                yy_lval = new LiteralClosure(op.name);
-                return op.token2;
+                return _IDENT_;
             }
-        }
 
-        if (S.token == Token.IDENT && yy_next_action(_IDENT_) != YY_FAIL) {
-            // The current production accepts an identifier
-            yy_lval = new LiteralClosure(Symbol.valueOf(S.idValue));
-            S.scan();
-            return _IDENT_;
-        }
+            if (S.token == Token.STRINGVAL && yy_next_action(_STRING_) != YY_FAIL) {
+                // The current production accepts a string constant
+                yy_lval = new LiteralClosure(S.stringValue);
+                S.scan();
+                return _STRING_;
+            }
 
-        if (S.token == Token.STRINGVAL && yy_next_action(_STRING_) != YY_FAIL) {
-            // The current production accepts a string constant
-            yy_lval = new LiteralClosure(S.stringValue);
-            S.scan();
-            return _STRING_;
+            if (S.token == Token.NUMBER && yy_next_action(_NUMBER_) != YY_FAIL) {
+                // The current production accepts a number constant
+                yy_lval = new LiteralClosure(S.numberValue);
+                S.scan();
+                return _NUMBER_;
+            }
+
+            if (yy_next_action(_EXPR_) != YY_FAIL) {
+                // The current production accepts a subexpression
+                yy_lval = new ExpressionClosure(parse_subexpression());
+                return _EXPR_;
+            }
+
+            if (yy_next_action(_STMT_) != YY_FAIL) {
+                // The current production accepts a statement
+                yy_lval = new ExpressionClosure(parse_statement());
+                return _STMT_;
+            }
+
+            return _EOI_;       // mark the end of input
         }
 
-        if (S.token == Token.NUMBER && yy_next_action(_NUMBER_) != YY_FAIL) {
-            // The current production accepts a number constant
-            yy_lval = new LiteralClosure(S.numberValue);
+        private ELNode parse_embed_expression() {
+            S.lexer = original;
             S.scan();
-            return _NUMBER_;
+            ELNode exp = S.parseExpression();
+            S.lexer = current;
+            S.expect(Token.RPAREN);
+            return exp;
         }
 
-        if (yy_next_action(_EXPR_) != YY_FAIL) {
-            // The current production accepts a subexpression
-            yy_lval = new ExpressionClosure(parse_subexpression());
-            return _EXPR_;
+        private ELNode parse_subexpression() {
+            S.lexer = original;
+            S.rescan();
+            ELNode exp = S.parseExpression();
+            S.lexer = current;
+            S.rescan();
+            return exp;
         }
 
-        if (yy_next_action(_STMT_) != YY_FAIL) {
-            // The current production accepts a statement
-            yy_lval = new ExpressionClosure(parse_statement());
-            return _STMT_;
+        private ELNode parse_statement() {
+            S.lexer = original;
+            S.rescan();
+            ELNode stmt = S.parseStatement();
+            S.lexer = current;
+            S.rescan();
+            return stmt;
         }
-
-        return _EOI_;       // mark the end of input
-    }
-
-    private ELNode parse_embed_expression() {
-        S.lexer = original;
-        S.scan();
-        ELNode exp = S.parseExpression();
-        S.lexer = current;
-        S.expect(Token.RPAREN);
-        return exp;
-    }
-
-    private ELNode parse_subexpression() {
-        S.lexer = original;
-        S.rescan();
-        ELNode exp = S.parseExpression();
-        S.lexer = current;
-        S.rescan();
-        return exp;
-    }
-
-    private ELNode parse_statement() {
-        S.lexer = original;
-        S.rescan();
-        ELNode stmt = S.parseStatement();
-        S.lexer = current;
-        S.rescan();
-        return stmt;
-    }
     
-    private void yy_act(int prod_num) {
-        YYACT act = yy_acts[prod_num];
-
-        if (act != null) {
-            EvaluationContext ctx = env.pushContext();
-            ELContext elctx = ctx.getELContext();
-            int rhs_len = act.ids.length;
-
-            for (int i = 0; i < rhs_len; i++) {
-                if (act.ids[i] != null) {
-                    Closure val = yy_vstack[yy_sp+rhs_len-i-1];
-                    if (val == null)
-                        val = new LiteralClosure(null);
-                    ctx.setVariable(act.ids[i], val);
+        private void yy_act(int prod_num) {
+            YYACT act = yy_acts[prod_num];
+
+            if (act != null) {
+                EvaluationContext ctx = env.pushContext();
+                ELContext elctx = ctx.getELContext();
+                int rhs_len = act.ids.length;
+
+                for (int i = 0; i < rhs_len; i++) {
+                    if (act.ids[i] != null) {
+                        Closure val = yy_vstack[yy_sp+rhs_len-i-1];
+                        if (val == null)
+                            val = new LiteralClosure(null);
+                        ctx.setVariable(act.ids[i], val);
+                    }
                 }
-            }
 
-            if (act.action != null) {
-                if (act.trans) {
-                    TreeTransformer trans = new GrammarTransformer(ctx);
-                    yy_val = new ExpressionClosure(trans.transform(act.action));
+                if (act.action != null) {
+                    if (act.trans) {
+                        TreeTransformer trans = new GrammarTransformer(ctx);
+                        yy_val = new ExpressionClosure(trans.transform(act.action));
+                    } else {
+                        yy_val = act.action.closure(ctx);
+                        yy_val.getValue(elctx); // force the side effect
+                        S.setCacheable(false);  // the side effect can't be cached
+                    }
                 } else {
-                    yy_val = act.action.closure(ctx);
-                    yy_val.getValue(elctx); // force the side effect
+                    yy_val = null;
                 }
+
+                if (act.optflg != 0) {
+                    yy_val = make_list(elctx, act, rhs_len);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Closure make_list(ELContext elctx, YYACT act, int rhs_len) {
+            /* s : A (B)* C;       s  : A Bs C
+             *                     Bs : Bs B          { Bs ++ B }
+             *                        | <epsilon>     { [] }
+             *
+             * S : A (B)+ C;       s  : A Bs C
+             *                     Bs : Bs B          { Bs ++ B }
+             *                        | B             { [B] }
+             *
+             * S : A (B)<t> C;     s   : A Bs C
+             *                     Bs  : Bs t B       { Bs ++ B }
+             *                         | B            { [B] }
+             */
+
+            List    lst;
+            Closure lhs;
+
+            if (act.optflg == OPT_LIST_HEAD) {
+                lst = new ArrayList();
+                lhs = new LiteralClosure(lst);
             } else {
-                yy_val = null;
+                lhs = yy_vstack[yy_sp + rhs_len - 1];
+                lst = (List)lhs.getValue(elctx);
             }
 
-            if (act.optflg != 0) {
-                yy_val = make_list(elctx, act, rhs_len);
+            if (yy_val != null) {
+                // evaluate action in B
+                lst.add(yy_val.getValue(elctx));
+            } else if (rhs_len != 0) {
+                // find leftmost value in B, the `optflg' is used as the index
+                // to find B in the value stack
+                Closure e = yy_vstack[yy_sp + rhs_len - act.optflg];
+                lst.add((e != null) ? e.getValue(elctx) : null);
             }
-        }
-    }
 
-    @SuppressWarnings("unchecked")
-    private Closure make_list(ELContext elctx, YYACT act, int rhs_len) {
-        /* s : A (B)* C;       s  : A Bs C
-         *                     Bs : Bs B          { Bs ++ B }
-         *                        | <epsilon>     { [] }
-         *
-         * S : A (B)+ C;       s  : A Bs C
-         *                     Bs : Bs B          { Bs ++ B }
-         *                        | B             { [B] }
-         *
-         * S : A (B)<t> C;     s   : A Bs C
-         *                     Bs  : Bs t B       { Bs ++ B }
-         *                         | B            { [B] }
-         */
-
-        List    lst;
-        Closure lhs;
-
-        if (act.optflg == OPT_LIST_HEAD) {
-            lst = new ArrayList();
-            lhs = new LiteralClosure(lst);
-        } else {
-            lhs = yy_vstack[yy_sp + rhs_len - 1];
-            lst = (List)lhs.getValue(elctx);
+            return lhs;
         }
 
-        if (yy_val != null) {
-            // evaluate action in B
-            lst.add(yy_val.getValue(elctx));
-        } else if (rhs_len != 0) {
-            // find leftmost value in B, the `optflg' is used as the index
-            // to find B in the value stack
-            Closure e = yy_vstack[yy_sp + rhs_len - act.optflg];
-            lst.add((e != null) ? e.getValue(elctx) : null);
+        private void yy_save() {
+            System.arraycopy(yy_stack, yy_sp, xx_stack, yy_sp, YYMAXDEPTH - yy_sp);
+            System.arraycopy(yy_vstack, yy_sp, xx_vstack, yy_sp, YYMAXDEPTH - yy_sp);
+
+            xx_sp   = yy_sp;
+            xx_val  = yy_val;
+            xx_lval = yy_lval;
+
+            S.save(state);
+            if (streaming)
+                S.commit(state.prev);
         }
 
-        return lhs;
+        private void yy_restore() {
+            System.arraycopy(xx_stack, xx_sp, yy_stack, xx_sp, YYMAXDEPTH - xx_sp);
+            System.arraycopy(xx_vstack, xx_sp, yy_vstack, xx_sp, YYMAXDEPTH - xx_sp);
+
+            yy_sp   = xx_sp;
+            yy_val  = xx_val;
+            yy_lval = xx_lval;
+
+            S.lexer = original;
+            S.restore(state);
+            S.rescan();
+        }
     }
 
     static class GrammarTransformer extends TreeTransformer {
@@ -678,27 +795,4 @@ class Grammar implements Serializable
         }
     }
 
-    private void yy_save() {
-        System.arraycopy(yy_stack, yy_sp, xx_stack, yy_sp, YYMAXDEPTH - yy_sp);
-        System.arraycopy(yy_vstack, yy_sp, xx_vstack, yy_sp, YYMAXDEPTH - yy_sp);
-
-        xx_sp   = yy_sp;
-        xx_val  = yy_val;
-        xx_lval = yy_lval;
-
-        S.save(state);
-    }
-
-    private void yy_restore() {
-        System.arraycopy(xx_stack, xx_sp, yy_stack, xx_sp, YYMAXDEPTH - xx_sp);
-        System.arraycopy(xx_vstack, xx_sp, yy_vstack, xx_sp, YYMAXDEPTH - xx_sp);
-
-        yy_sp   = xx_sp;
-        yy_val  = xx_val;
-        yy_lval = xx_lval;
-
-        S.lexer = original;
-        S.restore(state);
-        S.rescan();
-    }
 }
@@ -1338,9 +1338,9 @@ public class GrammarParser
         }
 
         public int hashCode() {
-            int total = 0;
+            int total = nitems;
             for (int i = 0; i < nitems; i++) {
-                total += items[i].prod_num + items[i].dot_posn;
+                total = total*31 + (items[i].prod_num << 5) + items[i].dot_posn;
             }
             return total;
         }
@@ -1516,8 +1516,8 @@ public class GrammarParser
         grammar.infix_keys  = infix_keys();
         grammar.blocks      = _code_blocks;
         grammar.fragments   = _fragments;
-        grammar.yy_action   = make_tab(_actions);
-        grammar.yy_goto     = make_tab(_gotos);
+        grammar.yy_action   = make_action_tab();
+        grammar.yy_goto     = make_goto_tab();
         grammar.yy_stok     = make_yy_stok();
         grammar.yy_lhs      = make_yy_lhs(prodtab);
         grammar.yy_reduce   = make_yy_reduce(prodtab);
@@ -1925,29 +1925,165 @@ public class GrammarParser
         return yy_stok;
     }
 
-    /* Create the action or goto tab. */
-    private int[][] make_tab(ACT[] table) {
-        int     i, j;
-        ACT     ele;
-        int[][] matrix = new int[_nstates][];
+    /* Create the action table. Rows are indexed by state and columns by
+     * terminal. Actions are never defaulted, a missing entry is an error.
+     */
+    private YYTAB make_action_tab() {
+        int[][] rows = new int[_nstates][];
+        int[]   dflt = new int[_nstates];
+
+        for (int i = 0; i < _nstates; i++) {
+            rows[i] = i < _actions.length ? make_row(_actions[i]) : null;
+            dflt[i] = YY_FAIL;
+        }
+        return make_tab(rows, dflt);
+    }
+
+    /* Create the goto table. Rows are indexed by nonterminal and columns by
+     * state, and the most common goto state of a nonterminal is used as the
+     * default, so only the exceptions are stored.
+     */
+    private YYTAB make_goto_tab() {
+        int     nrows = adj_val(_cur_nonterm) + 1;
+        int[][] rows  = new int[nrows][];
+        int[]   dflt  = new int[nrows];
+        int[]   count = new int[nrows];
+
+        for (int i = 0; i < _nstates && i < _gotos.length; i++)
+            for (ACT p = _gotos[i]; p != null; p = p.next)
+                count[p.sym]++;
+
+        for (int nt = 0; nt < nrows; nt++) {
+            rows[nt] = new int[count[nt]*2];
+            count[nt] = 0;
+        }
+        for (int i = 0; i < _nstates && i < _gotos.length; i++) {
+            for (ACT p = _gotos[i]; p != null; p = p.next) {
+                int[] row = rows[p.sym];
+                row[count[p.sym]++] = i;
+                row[count[p.sym]++] = p.do_this;
+            }
+        }
+
+        for (int nt = 0; nt < nrows; nt++) {
+            int[] row = rows[nt];
+            if (row.length == 0) {
+                dflt[nt] = YY_FAIL;
+                continue;
+            }
+
+            // Find the most common goto state
+            Map<Integer,Integer> freq = new HashMap<Integer,Integer>();
+            int best = row[1], max = 0;
+            for (int j = 1; j < row.length; j += 2) {
+                Integer n = freq.get(row[j]);
+                n = (n == null) ? 1 : n + 1;
+                freq.put(row[j], n);
+                if (n > max) {
+                    max = n;
+                    best = row[j];
+                }
+            }
+
+            // Remove entries that go to the default state
+            int k = 0;
+            for (int j = 0; j < row.length; j += 2) {
+                if (row[j+1] != best) {
+                    row[k++] = row[j];
+                    row[k++] = row[j+1];
+                }
+            }
+            rows[nt] = Arrays.copyOf(row, k);
+            dflt[nt] = best;
+        }
+
+        return make_tab(rows, dflt);
+    }
+
+    private static int[] make_row(ACT chain) {
+        int count = 0;
+        for (ACT p = chain; p != null; p = p.next)
+            ++count;
+
+        int[] row = new int[count*2];
+        int j = 0;
+        for (ACT p = chain; p != null; p = p.next) {
+            row[j++] = p.sym;
+            row[j++] = p.do_this;
+        }
+        return row;
+    }
+
+    /* Pack the sparse rows into comb vectors. The rows are given as
+     * column/value pairs. The densest rows are placed first, each row
+     * at the lowest offset where all its entries fit in free slots.
+     */
+    private static YYTAB make_tab(int[][] rows, int[] dflt) {
+        int   nrows = rows.length;
+        int[] base  = new int[nrows];
+        int[] check = new int[64];
+        int[] next  = new int[64];
+        int   size  = 0;        // the highest used slot plus one
+        int   low   = 0;        // the lowest free slot
+
+        Arrays.fill(check, -1);
+
+        Integer[] order = new Integer[nrows];
+        for (int i = 0; i < nrows; i++)
+            order[i] = i;
+        final int[][] r = rows;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int la = r[a] == null ? 0 : r[a].length;
+                int lb = r[b] == null ? 0 : r[b].length;
+                return lb - la;
+            }
+        });
 
-        for (i = 0; i < _nstates; ++i) {
-            if (i >= table.length || table[i] == null)
+        for (int i : order) {
+            int[] row = rows[i];
+            if (row == null || row.length == 0)
                 continue;
 
-            int count = 0;
-            for (ele = table[i]; ele != null; ele = ele.next)
-                ++count;
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int j = 0; j < row.length; j += 2) {
+                min = Math.min(min, row[j]);
+                max = Math.max(max, row[j]);
+            }
 
-            int[] column = new int[count*2];
-            matrix[i] = column;
-            for (j = 0, ele = table[i]; ele != null; j++, ele = ele.next) {
-                column[j*2  ] = ele.sym;
-                column[j*2+1] = ele.do_this;
+            // Find the lowest base where the row fits
+            int b = low - min;
+            search:
+            for (;; b++) {
+                for (int j = 0; j < row.length; j += 2) {
+                    int k = b + row[j];
+                    if (k < check.length && check[k] != -1)
+                        continue search;
+                }
+                break;
             }
+
+            if (b + max >= check.length) {
+                int n = Math.max(check.length * 2, b + max + 1);
+                int old = check.length;
+                check = Arrays.copyOf(check, n);
+                next  = Arrays.copyOf(next, n);
+                Arrays.fill(check, old, n, -1);
+            }
+
+            for (int j = 0; j < row.length; j += 2) {
+                int k = b + row[j];
+                check[k] = i;
+                next[k]  = row[j+1];
+            }
+
+            base[i] = b;
+            size = Math.max(size, b + max + 1);
+            while (low < check.length && check[low] != -1)
+                low++;
         }
 
-        return matrix;
+        return new YYTAB(base, Arrays.copyOf(check, size), Arrays.copyOf(next, size), dflt);
     }
 
     private PRODUCTION[] mkprodtab() {
@@ -17,10 +17,15 @@
 
 package org.operamasks.el.parser;
 
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Stack;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.TreeSet;
 
 public class LexBuilder
 {
@@ -685,132 +690,441 @@ public class LexBuilder
 
     /*--------------------------------------------------------------*/
 
-    private static final int MAX_CHARS = 128;
+    /*--------------------------------------------------------------
+     * DFA construction:
+     *
+     * The input alphabet is partitioned into equivalence classes of
+     * characters that can't be distinguished by any NFA edge. The NFA is
+     * then converted to a DFA by subset construction over these classes,
+     * and the DFA is minimized with Hopcroft's partition refinement. The
+     * resulting transition table is stored in a compact form where states
+     * with identical transitions share the same row.
+     */
 
-    private static class DFA {
-        BitSet          nfa_set;
-        int             accept;
-        DFA[]           fan_out;
+    /**
+     * The compiled state machine of lexical rules. The machine is immutable
+     * and can be shared by lexers and saved with the grammar.
+     */
+    static final class Machine implements Serializable {
+        private final int[]  ascii;     // character classes of ASCII characters
+        private final char[] ranges;    // the first character of class ranges
+        private final int[]  rclass;    // character classes of ranges
+        private final int    nclasses;  // number of character classes
+        private final int[]  rows;      // the row offset of each state
+        private final int[]  delta;     // the compressed transition table
+        private final int[]  accept;    // the accepting code of each state
+
+        private static final long serialVersionUID = -6513837364478201975L;
+
+        Machine(int[] ascii, char[] ranges, int[] rclass, int nclasses,
+                int[] rows, int[] delta, int[] accept) {
+            this.ascii    = ascii;
+            this.ranges   = ranges;
+            this.rclass   = rclass;
+            this.nclasses = nclasses;
+            this.rows     = rows;
+            this.delta    = delta;
+            this.accept   = accept;
+        }
 
-        DFA() {
-            this.nfa_set = null;
-            this.accept  = -1;
+        /**
+         * Returns the next state, or -1 if the character is rejected.
+         * The start state is always 0.
+         */
+        int next(int state, int c) {
+            int cls;
+            if (c < 128) {
+                cls = ascii[c];
+            } else {
+                int i = Arrays.binarySearch(ranges, (char)c);
+                cls = rclass[i >= 0 ? i : -i - 2];
+            }
+            return delta[rows[state] + cls];
         }
 
-        DFA(BitSet set, int accept) {
-            this.nfa_set = set;
-            this.accept  = accept;
+        int accept(int state) {
+            return accept[state];
         }
-    }
 
-    private static final DFA DFA_FAIL = new DFA();
+        int size() {
+            return rows.length;
+        }
+    }
 
-    private static class MachineLexer extends DefaultLexer {
-        private NFA[]           states;
-        private DFA             start_state;
-        private Map<BitSet,DFA> dstates = new HashMap<BitSet,DFA>();
-        private Stack<NFA>      stack   = new Stack<NFA>();
-
-        void init(NFA[] states, int nstates, NFA start) {
-            if (states.length != nstates) {
-                NFA[] tmp = new NFA[nstates];
-                System.arraycopy(states, 0, tmp, 0, nstates);
-                states = tmp;
-            }
+    private Machine _machine;
 
-            this.states = states;
+    /**
+     * Use a previously compiled state machine for the same rules.
+     */
+    public void setMachine(Machine machine) {
+        _machine = machine;
+    }
 
-            // Initialize start state
-            BitSet init_set;
-            int accept;
+    /**
+     * Returns the compiled state machine, or null if there are no
+     * lexical rules.
+     */
+    public Machine getMachine() {
+        if (_machine == null && _has_rules)
+            _machine = build_machine();
+        return _machine;
+    }
 
-            init_set = new BitSet();
-            init_set.set(start.val);
-            accept = e_closure(init_set);
-            start_state = new DFA(init_set, accept);
+    private Machine build_machine() {
+        // Collect character edges of the NFA
+        List<NFA> edges = new ArrayList<NFA>();
+        for (int i = 0; i < _nstates; i++) {
+            NFA p = _nfa_states[i];
+            if (p.edge >= 0 || p.edge == CCL)
+                edges.add(p);
         }
 
-        private DFA feed(DFA current, int c) {
-            DFA next = null;
+        // Split the alphabet into ranges that have the same transitions
+        TreeSet<Integer> bounds = new TreeSet<Integer>();
+        bounds.add(0);
+        bounds.add(128);
+        for (int c = 1; c < 128; c++)
+            bounds.add(c);
+        for (NFA p : edges) {
+            if (p.edge >= 0) {
+                bounds.add(p.edge);
+                bounds.add(p.edge + 1);
+            } else {
+                BitSet set = p.bitset;
+                for (int i = set.nextSetBit(0); i >= 0; ) {
+                    int j = set.nextClearBit(i);
+                    bounds.add(i);
+                    bounds.add(j);
+                    i = set.nextSetBit(j);
+                }
+            }
+        }
+        bounds.add(Character.MAX_VALUE + 1);
+
+        // Merge ranges with the same transitions into character classes
+        Map<BitSet,Integer> classes = new HashMap<BitSet,Integer>();
+        List<Integer> reps = new ArrayList<Integer>();
+        int[] ascii = new int[128];
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Integer> rcls = new ArrayList<Integer>();
+
+        Integer lo = null;
+        for (Integer hi : bounds) {
+            if (lo != null && lo < hi) {
+                BitSet sig = new BitSet(edges.size());
+                for (int i = 0; i < edges.size(); i++)
+                    if (matches(edges.get(i), lo))
+                        sig.set(i);
+
+                Integer cls = classes.get(sig);
+                if (cls == null) {
+                    cls = reps.size();
+                    classes.put(sig, cls);
+                    reps.add(lo);
+                }
 
-            if (c < MAX_CHARS && current.fan_out != null) {
-                next = current.fan_out[c];
+                if (lo < 128) {
+                    ascii[lo] = cls;
+                } else if (rcls.isEmpty() || rcls.get(rcls.size()-1) != cls.intValue()) {
+                    starts.add(lo);
+                    rcls.add(cls);
+                }
             }
+            lo = hi;
+        }
 
-            if (next == null) {
-                BitSet nfa_set = move(current.nfa_set, c);
-                int    accept  = e_closure(nfa_set);
+        int nclasses = reps.size();
+        char[] ranges = new char[starts.size()];
+        int[] rclass = new int[rcls.size()];
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = (char)starts.get(i).intValue();
+            rclass[i] = rcls.get(i);
+        }
 
-                if (nfa_set == null) {
-                    next = DFA_FAIL;
-                } else if ((next = dstates.get(nfa_set)) == null) {
-                    next = new DFA(nfa_set, accept);
-                    dstates.put(nfa_set, next);
+        // Subset construction, the last state is the dead state
+        Map<BitSet,Integer> dstates = new HashMap<BitSet,Integer>();
+        List<BitSet> sets = new ArrayList<BitSet>();
+        List<Integer> accepts = new ArrayList<Integer>();
+        List<int[]> trans = new ArrayList<int[]>();
+        Stack<NFA> stack = new Stack<NFA>();
+
+        BitSet init = new BitSet();
+        init.set(_start.val);
+        accepts.add(e_closure(init, stack));
+        dstates.put(init, 0);
+        sets.add(init);
+
+        for (int s = 0; s < sets.size(); s++) {
+            BitSet set = sets.get(s);
+            int[] row = new int[nclasses];
+            for (int cls = 0; cls < nclasses; cls++) {
+                BitSet next = move(set, reps.get(cls));
+                if (next == null) {
+                    row[cls] = -1;
                 } else {
-                    assert next.accept == accept;
-                }
-
-                if (c < MAX_CHARS) {
-                    if (current.fan_out == null)
-                        current.fan_out = new DFA[MAX_CHARS];
-                    current.fan_out[c] = next;
+                    int accept = e_closure(next, stack);
+                    Integer t = dstates.get(next);
+                    if (t == null) {
+                        t = sets.size();
+                        dstates.put(next, t);
+                        sets.add(next);
+                        accepts.add(accept);
+                    }
+                    row[cls] = t;
                 }
             }
+            trans.add(row);
+        }
 
-            return next;
+        int n = sets.size() + 1, dead = n - 1;
+        int[] next = new int[n * nclasses];
+        int[] accept = new int[n];
+        for (int s = 0; s < dead; s++) {
+            int[] row = trans.get(s);
+            for (int cls = 0; cls < nclasses; cls++)
+                next[s*nclasses + cls] = row[cls] < 0 ? dead : row[cls];
+            accept[s] = accepts.get(s);
         }
+        Arrays.fill(next, dead*nclasses, n*nclasses, dead);
+        accept[dead] = -1;
 
-        private int e_closure(BitSet set) {
-            int i;
-            int accept = -1;
-            int accept_num = Integer.MAX_VALUE;
+        return minimize(n, nclasses, next, accept, dead, ascii, ranges, rclass);
+    }
 
-            if (set == null)
-                return -1;
+    private static boolean matches(NFA p, int c) {
+        return p.edge == c || (p.edge == CCL && (p.bitset.get(c) ^ p.compl));
+    }
 
-            stack.clear();
-            for (i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i+1))
-                stack.push(states[i]);
+    private int e_closure(BitSet set, Stack<NFA> stack) {
+        int i;
+        int accept = -1;
+        int accept_num = Integer.MAX_VALUE;
 
-            while (!stack.isEmpty()) {
-                NFA p = stack.pop();
+        stack.clear();
+        for (i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i+1))
+            stack.push(_nfa_states[i]);
 
-                if (p.accept != -1 && p.val < accept_num) {
-                    accept     = p.accept;
-                    accept_num = p.val;
-                }
+        while (!stack.isEmpty()) {
+            NFA p = stack.pop();
 
-                if (p.edge == EPSILON) {
-                    if (p.next != null) {
-                        if (!set.get(p.next.val)) {
-                            set.set(p.next.val);
-                            stack.push(p.next);
-                        }
+            if (p.accept != -1 && p.val < accept_num) {
+                accept     = p.accept;
+                accept_num = p.val;
+            }
+
+            if (p.edge == EPSILON) {
+                if (p.next != null) {
+                    if (!set.get(p.next.val)) {
+                        set.set(p.next.val);
+                        stack.push(p.next);
                     }
-                    if (p.next2 != null) {
-                        if (!set.get(p.next2.val)) {
-                            set.set(p.next2.val);
-                            stack.push(p.next2);
-                        }
+                }
+                if (p.next2 != null) {
+                    if (!set.get(p.next2.val)) {
+                        set.set(p.next2.val);
+                        stack.push(p.next2);
                     }
                 }
             }
+        }
+
+        return accept;
+    }
+
+    private BitSet move(BitSet inpset, int c) {
+        BitSet outset = null;
+
+        for (int i = inpset.nextSetBit(0); i >= 0; i = inpset.nextSetBit(i+1)) {
+            NFA p = _nfa_states[i];
+            if (matches(p, c)) {
+                if (outset == null)
+                    outset = new BitSet();
+                outset.set(p.next.val);
+            }
+        }
+        return outset;
+    }
 
-            return accept;
+    /**
+     * Minimize the complete DFA with Hopcroft's algorithm and build the
+     * compressed state machine.
+     */
+    private static Machine minimize(int n, int k, int[] next, int[] accept, int dead,
+                                    int[] ascii, char[] ranges, int[] rclass) {
+        // Predecessors of each state on each character class
+        int[] pstart = new int[k*n + 1];
+        int[] preds = new int[k*n];
+        for (int s = 0; s < n; s++)
+            for (int cls = 0; cls < k; cls++)
+                pstart[cls*n + next[s*k + cls] + 1]++;
+        for (int i = 0; i < k*n; i++)
+            pstart[i+1] += pstart[i];
+        int[] fill = pstart.clone();
+        for (int s = 0; s < n; s++)
+            for (int cls = 0; cls < k; cls++)
+                preds[fill[cls*n + next[s*k + cls]]++] = s;
+
+        // The initial partition groups states by accepting code
+        int[] elems = new int[n];       // states ordered by block
+        int[] loc = new int[n];         // the location of state in elems
+        int[] block = new int[n];       // the block of each state
+        int[] first = new int[n];       // the first element of each block
+        int[] end = new int[n];         // the end of each block
+        int[] marked = new int[n];      // number of marked elements of block
+        int nblocks = 0;
+
+        Map<Integer,Integer> initial = new HashMap<Integer,Integer>();
+        for (int s = 0; s < n; s++) {
+            Integer b = initial.get(accept[s]);
+            if (b == null) {
+                initial.put(accept[s], b = nblocks++);
+            }
+            block[s] = b;
+            end[b]++;
+        }
+        for (int b = 1; b < nblocks; b++)
+            end[b] += end[b-1];
+        for (int s = n; --s >= 0; ) {
+            int i = --end[block[s]];
+            elems[i] = s;
+            loc[s] = i;
         }
+        for (int b = 0; b < nblocks; b++) {
+            first[b] = end[b];
+            end[b] = (b+1 < nblocks) ? end[b+1] : n;
+        }
+
+        // Refine the partition until no block can be split
+        boolean[] pending = new boolean[n*k];
+        int[] work = new int[n*k];
+        int wp = 0;
+        for (int b = 0; b < nblocks; b++) {
+            for (int cls = 0; cls < k; cls++) {
+                pending[b*k + cls] = true;
+                work[wp++] = b*k + cls;
+            }
+        }
+
+        int[] splitter = new int[n];
+        int[] touched = new int[n];
+        while (wp > 0) {
+            int w = work[--wp];
+            int a = w / k, cls = w % k;
+            pending[w] = false;
+
+            int nx = 0;
+            for (int i = first[a]; i < end[a]; i++) {
+                int t = elems[i];
+                for (int j = pstart[cls*n + t]; j < pstart[cls*n + t + 1]; j++)
+                    splitter[nx++] = preds[j];
+            }
+
+            int nt = 0;
+            for (int i = 0; i < nx; i++) {
+                int s = splitter[i], b = block[s];
+                int j = first[b] + marked[b];
+                if (loc[s] >= j) {
+                    int u = elems[j];
+                    elems[loc[s]] = u;
+                    loc[u] = loc[s];
+                    elems[j] = s;
+                    loc[s] = j;
+                    if (marked[b]++ == 0)
+                        touched[nt++] = b;
+                }
+            }
 
-        private BitSet move(BitSet inpset, int c) {
-            BitSet outset = null;
+            for (int i = 0; i < nt; i++) {
+                int b = touched[i];
+                int m = marked[b];
+                marked[b] = 0;
+                if (m == end[b] - first[b])
+                    continue;
+
+                // split marked elements into a new block
+                int nb = nblocks++;
+                first[nb] = first[b];
+                end[nb] = first[b] + m;
+                first[b] = end[nb];
+                for (int j = first[nb]; j < end[nb]; j++)
+                    block[elems[j]] = nb;
+
+                boolean smaller = end[nb] - first[nb] <= end[b] - first[b];
+                for (int c = 0; c < k; c++) {
+                    int add = (pending[b*k + c] || smaller) ? nb : b;
+                    if (!pending[add*k + c]) {
+                        pending[add*k + c] = true;
+                        work[wp++] = add*k + c;
+                    }
+                }
+            }
+        }
 
-            for (int i = inpset.nextSetBit(0); i >= 0; i = inpset.nextSetBit(i+1)) {
-                NFA p = states[i];
-                if (p.edge==c || (p.edge==CCL && (p.bitset.get(c) ^ p.compl))) {
-                    if (outset == null)
-                        outset = new BitSet();
-                    outset.set(p.next.val);
+        // Number the minimized states with the start state first and
+        // the dead state removed
+        int[] number = new int[nblocks];
+        Arrays.fill(number, -1);
+        int[] order = new int[nblocks];
+        int nstates = 0;
+        number[block[0]] = nstates;
+        order[nstates++] = block[0];
+        for (int i = 0; i < nstates; i++) {
+            int s = elems[first[order[i]]];
+            for (int cls = 0; cls < k; cls++) {
+                int b = block[next[s*k + cls]];
+                if (number[b] == -1 && b != block[dead]) {
+                    number[b] = nstates;
+                    order[nstates++] = b;
                 }
             }
-            return outset;
+        }
+
+        // Build the transition table, identical rows are shared
+        int[] rows = new int[nstates];
+        int[] delta = new int[nstates * k];
+        int[] acc = new int[nstates];
+        Map<String,Integer> shared = new HashMap<String,Integer>();
+        int size = 0;
+
+        for (int i = 0; i < nstates; i++) {
+            int s = elems[first[order[i]]];
+            int[] row = new int[k];
+            for (int cls = 0; cls < k; cls++) {
+                int b = block[next[s*k + cls]];
+                row[cls] = (b == block[dead]) ? -1 : number[b];
+            }
+
+            String key = Arrays.toString(row);
+            Integer offset = shared.get(key);
+            if (offset == null) {
+                offset = size;
+                System.arraycopy(row, 0, delta, size, k);
+                size += k;
+                shared.put(key, offset);
+            }
+            rows[i] = offset;
+            acc[i] = accept[s];
+        }
+
+        if (size < delta.length) {
+            int[] t = new int[size];
+            System.arraycopy(delta, 0, t, 0, size);
+            delta = t;
+        }
+
+        return new Machine(ascii, ranges, rclass, k, rows, delta, acc);
+    }
+
+    private static class MachineLexer extends DefaultLexer {
+        private final Machine machine;
+
+        MachineLexer(Machine machine) {
+            this.machine = machine;
+        }
+
+        @Override
+        protected DefaultLexer newFork() {
+            return new MachineLexer(machine);
         }
 
         public void scan(Scanner s) {
@@ -826,20 +1140,21 @@ public class LexBuilder
                 return;
             }
 
-            DFA p = start_state;
+            int state = 0;
             sp = 0;
 
             while (s.ch != Token.EOI) {
-                p = feed(p, s.ch);
-                if (p == DFA_FAIL)
+                state = machine.next(state, s.ch);
+                if (state < 0)
                     break; // rejected
 
                 putc(s.ch);
                 s.nextchar();
 
-                if (p.accept != -1) {
+                int accept = machine.accept(state);
+                if (accept != -1) {
                     // save state for this accepted token
-                    lastaccept = p.accept;
+                    lastaccept = accept;
                     last       = s.next;
                     lastch     = s.ch;
                     lastpos    = s.pos;
@@ -913,11 +1228,11 @@ public class LexBuilder
     }
 
     public Lexer getLexer() {
-        if (_has_rules) {
-            MachineLexer machine = new MachineLexer();
-            machine.importFrom(_lexer);
-            machine.init(_nfa_states, _nstates, _start);
-            return machine;
+        Machine machine = getMachine();
+        if (machine != null) {
+            MachineLexer lexer = new MachineLexer(machine);
+            lexer.importFrom(_lexer);
+            return lexer;
         } else {
             return _lexer;
         }
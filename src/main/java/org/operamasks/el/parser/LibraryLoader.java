@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.el.ELException;
+
+import org.operamasks.el.eval.ELProgram;
+
+/**
+ * Load a library made of several script files into one program.
+ *
+ * <p>The files are parsed as if they were required one after another, so
+ * the syntax rules defined by a file are visible to the files following
+ * it. Files that may define syntax rules are parsed in order on the caller
+ * thread, while the files in between are parsed concurrently with the
+ * syntax rules defined so far. A file found to define syntax rules after
+ * all is treated as such and the files following it are parsed again.</p>
+ */
+public class LibraryLoader
+{
+    private ExecutorService executor;
+    private String encoding;
+    private ResourceResolver resolver;
+    private Parser rules;
+
+    // the words that may change the syntax rules for following files
+    private static final String[] SYNTAX_WORDS = {
+        "grammar", "require", "undef"
+    };
+    private static final String[] SYNTAX_METADATA = {
+        "infix", "prefix", "keyword", "compile_time"
+    };
+
+    private static ExecutorService sharedExecutor;
+
+    /**
+     * Create a loader that parses files on a thread pool shared by all
+     * loaders. The pool is created on first use and its threads are
+     * daemon threads.
+     */
+    public LibraryLoader() {
+        this(null);
+    }
+
+    /**
+     * Create a loader that parses files on the given executor.
+     */
+    public LibraryLoader(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public void setResourceResolver(ResourceResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Set the parser whose syntax rules are imported by the loaded files.
+     */
+    public void setSyntaxRules(Parser parser) {
+        this.rules = parser;
+    }
+
+    /**
+     * Returns a parser that holds the syntax rules in effect after loading,
+     * or null if no syntax rules were defined.
+     */
+    public Parser getSyntaxRules() {
+        return rules;
+    }
+
+    public ELProgram load(File... files) throws IOException {
+        return load(Arrays.asList(files));
+    }
+
+    /**
+     * Load the script files into one program.
+     */
+    public ELProgram load(List<File> files) throws IOException {
+        int n = files.size();
+        Unit[] units = new Unit[n];
+        for (int i = 0; i < n; i++) {
+            File file = files.get(i);
+            units[i] = new Unit(file.getPath(), readFile(file));
+        }
+
+        ExecutorService pool = (executor != null) ? executor : getSharedExecutor();
+        ELProgram program = new ELProgram();
+        int start = 0;
+        while (start < n) {
+            start = link(program, units, start, pool);
+        }
+        return program;
+    }
+
+    private static synchronized ExecutorService getSharedExecutor() {
+        if (sharedExecutor == null) {
+            int nthreads = Runtime.getRuntime().availableProcessors();
+            sharedExecutor = Executors.newFixedThreadPool(nthreads, new WorkerFactory());
+        }
+        return sharedExecutor;
+    }
+
+    private static final class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "elite-loader-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * Parse the units from the start index and link them into the program.
+     * Returns the index of the first unit still to be parsed, which is less
+     * than the number of units if a unit defined unexpected syntax rules.
+     */
+    private int link(ELProgram program, Unit[] units, int start, ExecutorService pool) {
+        int n = units.length;
+        List<Future<Result>> results = new ArrayList<Future<Result>>(n - start);
+
+        Parser current = rules;
+        for (int i = start; i < n; i++) {
+            Callable<Result> task = units[i].task(current);
+            if (units[i].syntax) {
+                FutureTask<Result> result = new FutureTask<Result>(task);
+                result.run();
+                results.add(result);
+                try {
+                    current = get(result).rules;
+                } catch (RuntimeException ex) {
+                    break; // reported in order below
+                }
+            } else {
+                results.add(pool.submit(task));
+            }
+        }
+
+        try {
+            for (int i = start; i < n; i++) {
+                Result result = get(results.get(i - start));
+                program.addProgram(result.program);
+                if (result.changed) {
+                    rules = result.rules;
+                    if (!units[i].syntax) {
+                        // the following files were parsed with wrong syntax rules
+                        units[i].syntax = true;
+                        return i + 1;
+                    }
+                }
+            }
+            return n;
+        } finally {
+            for (Future<Result> result : results) {
+                result.cancel(false);
+            }
+        }
+    }
+
+    private static Result get(Future<Result> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ELException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new ELException(cause);
+        }
+    }
+
+    /**
+     * The result of parsing a script file.
+     */
+    private static class Result {
+        final ELProgram program;
+        final Parser    rules;      // the syntax rules after parsing
+        final boolean   changed;    // true if the file defined syntax rules
+
+        Result(ELProgram program, Parser rules, boolean changed) {
+            this.program = program;
+            this.rules   = rules;
+            this.changed = changed;
+        }
+    }
+
+    /**
+     * A script file to be loaded.
+     */
+    private class Unit {
+        final String path;
+        final String script;
+        boolean syntax;         // true if the file may define syntax rules
+
+        Unit(String path, String script) {
+            this.path = path;
+            this.script = script;
+            this.syntax = mayDefineSyntax(script);
+        }
+
+        Callable<Result> task(final Parser rules) {
+            return new Callable<Result>() {
+                public Result call() {
+                    Parser parser = new Parser(script);
+                    parser.setFileName(path);
+                    parser.setResourceResolver(resolver);
+                    if (rules != null)
+                        parser.importSyntaxRules(rules);
+
+                    ProgramCache.SyntaxRules before = new ProgramCache.SyntaxRules(parser);
+                    ELProgram program = parser.parse();
+                    if (before.changed(parser)) {
+                        return new Result(program, parser, true);
+                    } else {
+                        return new Result(program, rules, false);
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns true if the script contains words that may define syntax
+     * rules. The test is conservative, the words may occur in comments or
+     * strings.
+     */
+    private static boolean mayDefineSyntax(String script) {
+        for (String word : SYNTAX_WORDS) {
+            for (int i = script.indexOf(word); i != -1; i = script.indexOf(word, i + 1)) {
+                if (isWord(script, i, word.length()))
+                    return true;
+            }
+        }
+
+        for (int i = script.indexOf('@'); i != -1; i = script.indexOf('@', i + 1)) {
+            int j = i + 1, len = script.length();
+            while (j < len && Character.isWhitespace(script.charAt(j)))
+                j++;
+            for (String word : SYNTAX_METADATA) {
+                if (script.startsWith(word, j) && isWord(script, j, word.length()))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWord(String script, int start, int len) {
+        int end = start + len;
+        return (start == 0 || !Character.isJavaIdentifierPart(script.charAt(start - 1)))
+            && (end == script.length() || !Character.isJavaIdentifierPart(script.charAt(end)));
+    }
+
+    private String readFile(File file) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        Reader reader = (encoding != null) ? new InputStreamReader(stream, encoding)
+                                           : new InputStreamReader(stream);
+        try {
+            StringBuilder buf = new StringBuilder();
+            char[] cbuf = new char[8192];
+            for (int len; (len = reader.read(cbuf)) != -1; ) {
+                buf.append(cbuf, 0, len);
+            }
+            return buf.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
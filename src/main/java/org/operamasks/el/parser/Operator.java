@@ -17,12 +17,16 @@
 
 package org.operamasks.el.parser;
 
-public final class Operator
+import java.io.Serializable;
+
+public final class Operator implements Serializable
 {
     public String name;     // The operator name
     public int token;       // The operator numeric token value
     public int token2;      // The alternate token value
 
+    private static final long serialVersionUID = 8306247163412749405L;
+
     public Operator(String name, int token, int token2) {
         this.name = name;
         this.token = token;
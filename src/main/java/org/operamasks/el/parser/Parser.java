@@ -58,18 +58,55 @@ public class Parser extends Scanner
 {
     private ResourceResolver resolver = null;
     private ParseContext env = new ParseContext();
+    private boolean lazy_parsing = LAZY_PARSING;
 
     private static final String SCRIPT_PATH = "META-INF/script/elite/";
     private static final String SCRIPT_EXT = ".xel";
+    private static final boolean LAZY_PARSING = Boolean.getBoolean("elite.parser.lazy");
 
     public Parser(String text) {
         super(text);
     }
 
+    public Parser(Reader in) {
+        super(in);
+    }
+
+    /**
+     * Create a parser that resumes parsing at a saved parser state. The
+     * syntax rules are copied so later changes do not affect this parser.
+     */
+    private Parser(Parser state) {
+        super(state);
+        this.lexer = ((DefaultLexer)state.lexer).fork();
+        this.resolver = state.resolver;
+        this.prefix_grammars = new HashMap<String,Grammar>(state.prefix_grammars);
+        this.infix_grammars = new HashMap<String,Grammar>(state.infix_grammars);
+    }
+
     public void setResourceResolver(ResourceResolver resolver) {
         this.resolver = resolver;
     }
 
+    ResourceResolver getResourceResolver() {
+        return resolver;
+    }
+
+    /**
+     * Enable or disable lazy parsing. When enabled, the bodies of top-level
+     * procedure definitions are only skimmed over and parsed on the first
+     * invocation, so syntax errors in these bodies are reported late.
+     * The default is taken from the <code>elite.parser.lazy</code> system
+     * property.
+     */
+    public void setLazyParsing(boolean lazy) {
+        this.lazy_parsing = lazy;
+    }
+
+    public boolean isLazyParsing() {
+        return lazy_parsing;
+    }
+
     // Generate a unique class tag.
     private static final AtomicInteger clstagid = new AtomicInteger();
     private static String clstag() {
@@ -1543,6 +1580,10 @@ public class Parser extends Scanner
     }
 
     private ELNode parseProcedureDefinition(String name, String rtype, ELNode.METASET meta) {
+        return parseProcedureDefinition(name, rtype, meta, false);
+    }
+
+    private ELNode parseProcedureDefinition(String name, String rtype, ELNode.METASET meta, boolean lazy) {
         int p = pos;
         ParamList plist;
         ELNode body;
@@ -1566,7 +1607,7 @@ public class Parser extends Scanner
                 mark(); allow_alts = !(scan(LBRACE) && token == BAR); reset();
             }
 
-            body = parseProcedureBody(plist);
+            body = parseProcedureBody(plist, lazy);
             close_scope();
 
             boolean isAbstract = (meta != null) && (meta.modifiers & Modifier.ABSTRACT) != 0;
@@ -1708,9 +1749,15 @@ public class Parser extends Scanner
     }
 
     private ELNode parseProcedureBody(ParamList plist) {
+        return parseProcedureBody(plist, false);
+    }
+
+    private ELNode parseProcedureBody(ParamList plist, boolean lazy) {
         ELNode body;
 
-        if (scan(ARROW)) {
+        if (lazy && token == LBRACE && (body = deferProcedureBody(plist)) != null) {
+            return body;
+        } else if (scan(ARROW)) {
             body = parseExpressionStatement();
         } else if (scan(LBRACE)) {
             if (plist.classic && token == BAR) {
@@ -1731,6 +1778,99 @@ public class Parser extends Scanner
         return body;
     }
 
+    /**
+     * Skim over a procedure body and defer parsing until the procedure is
+     * invoked. Returns null if the body may contain syntax that cannot be
+     * skimmed over by tokens, such as regular expressions, XML literals,
+     * grammars and operator declarations. The body is parsed as usual then.
+     */
+    private ELNode deferProcedureBody(ParamList plist) {
+        if (!isBuffered() || !(lexer instanceof DefaultLexer)) {
+            return null;
+        }
+
+        Parser state = new Parser(this);
+        int depth = 0, last = -1, p = -1;
+
+        try {
+            do {
+                switch (token) {
+                case LBRACE:
+                    depth++;
+                    break;
+
+                case RBRACE:
+                    depth--;
+                    break;
+
+                case DIV: case LT:
+                    // a regular expression or XML literal starts a term
+                    switch (last) {
+                    case IDENT: case NUMBER: case STRINGVAL: case CHARVAL:
+                    case TRUE: case FALSE: case NULL:
+                    case RPAREN: case RBRACKET: case RBRACE:
+                        break;
+                    default:
+                        depth = -1;
+                    }
+                    break;
+
+                case KEYWORD:
+                    if (prefix_grammars.containsKey(operator.name) ||
+                        infix_grammars.containsKey(operator.name))
+                        depth = -1;
+                    break;
+
+                case GRAMMAR: case ATSIGN: case EOI:
+                    depth = -1;
+                    break;
+
+                default:
+                    if (idValue != null && (prefix_grammars.containsKey(idValue) ||
+                                            infix_grammars.containsKey(idValue)))
+                        depth = -1;
+                    break;
+                }
+
+                if (depth < 0)
+                    break;
+                last = token;
+                scan();
+
+                if (p == -1) {
+                    // '{|' starts pattern matching on parameters
+                    if (plist.classic && token == BAR)
+                        break;
+                    p = pos;
+                }
+            } while (depth > 0);
+        } catch (ELException ex) {
+            depth = -1;
+        }
+
+        if (depth != 0) {
+            restore(state);
+            return null;
+        }
+
+        // the lexer tables are shared with the deferred body from now on
+        lexer = ((DefaultLexer)lexer).fork();
+        return new DeferredBody(p, state);
+    }
+
+    /**
+     * Parse a procedure body deferred by {@link #deferProcedureBody}.
+     */
+    ELNode parseDeferredBody() {
+        Parser parser = new Parser(this);
+        parser.open_scope();
+        parser.expect(LBRACE);
+        ELNode body = parser.parseCompoundExpression(parser.pos);
+        parser.expect(RBRACE);
+        parser.close_scope();
+        return body;
+    }
+
     private static class Param {
         int            pos;         // the position of parameter
         String         name;        // the parameter name
@@ -2055,6 +2195,10 @@ public class Parser extends Scanner
     }
 
     private List<ELNode.DEFINE> parseDefinitions(ELNode.METASET meta) {
+        return parseDefinitions(meta, false);
+    }
+
+    private List<ELNode.DEFINE> parseDefinitions(ELNode.METASET meta, boolean lazy) {
         List<ELNode.DEFINE> defs = new ArrayList<ELNode.DEFINE>();
         if (token == CLASSDEF) {
             defs.add(parseClassDefinition(scan(), meta));
@@ -2064,7 +2208,7 @@ public class Parser extends Scanner
             }
         } else {
             do {
-                ELNode.DEFINE e = parseSingleDefinition(meta);
+                ELNode.DEFINE e = parseSingleDefinition(meta, lazy);
                 if (e != null) defs.add(e);
             } while (scan(COMMA));
             expect(SEMI);
@@ -2072,7 +2216,7 @@ public class Parser extends Scanner
         return defs;
     }
 
-    private ELNode.DEFINE parseSingleDefinition(ELNode.METASET meta) {
+    private ELNode.DEFINE parseSingleDefinition(ELNode.METASET meta, boolean lazy) {
         int p = pos;
         ELNode.DEFINE var;
         String type;
@@ -2080,7 +2224,7 @@ public class Parser extends Scanner
         if (token == VOID) {
             scan();
             var = scanVar(p, meta);
-            var.expr = parseProcedureDefinition(var.id, "void", meta);
+            var.expr = parseProcedureDefinition(var.id, "void", meta, lazy);
             return var;
         }
 
@@ -2101,7 +2245,7 @@ public class Parser extends Scanner
         case LBRACE:
             // define foo(x,y) {exp}
             // syntax sugar for foo={x,y=>exp}
-            var.expr = parseProcedureDefinition(var.id, type, meta);
+            var.expr = parseProcedureDefinition(var.id, type, meta, lazy);
             break;
 
         default:
@@ -3813,7 +3957,7 @@ public class Parser extends Scanner
         case STATIC:
         case FINAL:
         case ATSIGN:
-            for (ELNode.DEFINE e : parseDefinitions(parseMetaData())) {
+            for (ELNode.DEFINE e : parseDefinitions(parseMetaData(), lazy_parsing)) {
                 checkVar(e, true);
                 prog.addExpression(e);
             }
@@ -3875,7 +4019,9 @@ public class Parser extends Scanner
         expect(RBRACE);
         close_scope();
 
-        // execute compile time processor
+        // execute compile time processor, the program can not be cached
+        // since the processor may have side effects
+        cacheable = false;
         ELContext elctx = getParseContext().getELContext();
         return processor.execute(elctx, filename, line);
     }
@@ -3885,6 +4031,17 @@ public class Parser extends Scanner
     private Map<String,Grammar> prefix_grammars = new HashMap<String,Grammar>();
     private Map<String,Grammar> infix_grammars  = new HashMap<String,Grammar>();
 
+    // the key identifies syntax rules in the program cache, an empty
+    // key represents the base syntax, a null key represents unknown rules
+    private String syntax_key = "";
+
+    // the scripts required by the program
+    private List<ProgramCache.Dependency> dependencies =
+        new ArrayList<ProgramCache.Dependency>();
+
+    // false if the parsed program can not be cached
+    private boolean cacheable = true;
+
     // the evaluation context used by parser
     private EvaluationContext parse_context;
 
@@ -3949,24 +4106,66 @@ public class Parser extends Scanner
         prefix_grammars.putAll(from.prefix_grammars);
         infix_grammars.putAll(from.infix_grammars);
         lexer.importFrom(from.lexer);
+
+        if (syntax_key == null || from.syntax_key == null) {
+            syntax_key = null;
+        } else if (syntax_key.length() == 0) {
+            syntax_key = from.syntax_key;
+        } else if (from.syntax_key.length() != 0) {
+            syntax_key = ProgramCache.digest(syntax_key + from.syntax_key);
+        }
+    }
+
+    Map<String,Grammar> getPrefixGrammars() {
+        return prefix_grammars;
+    }
+
+    Map<String,Grammar> getInfixGrammars() {
+        return infix_grammars;
+    }
+
+    String getSyntaxKey() {
+        return syntax_key;
+    }
+
+    void setSyntaxKey(String key) {
+        syntax_key = key;
+    }
+
+    List<ProgramCache.Dependency> getDependencies() {
+        return dependencies;
+    }
+
+    boolean isCacheable() {
+        return cacheable;
+    }
+
+    void setCacheable(boolean cacheable) {
+        this.cacheable = cacheable;
     }
 
     private void parseScript(ELProgram prog, String path) {
         try {
             String script = readScript(path);
+            dependencies.add(new ProgramCache.Dependency(filename, path, ProgramCache.digest(script)));
+
             Parser parser = new Parser(script);
             parser.setFileName(path);
             parser.setResourceResolver(resolver);
             parser.allowComment(true);
+            parser.lazy_parsing = this.lazy_parsing;
             parser.env = this.env;
             parser.parseProgram(prog);
             importSyntaxRules(parser);
+
+            dependencies.addAll(parser.dependencies);
+            cacheable &= parser.cacheable;
         } catch (IOException ex) {
             throw parseError(ex.getMessage());
         }
     }
 
-    private String readScript(final String path) throws IOException {
+    String readScript(final String path) throws IOException {
         String resname;
         Reader reader = null;
 
@@ -4020,9 +4219,19 @@ public class Parser extends Scanner
     }
 
     /**
-     * Parse the EL program.
+     * Parse the EL program. The program is loaded from the program cache
+     * if the cache is enabled.
      */
     public ELProgram parse() {
+        ProgramCache cache = ProgramCache.getDefault();
+        if (cache != null) {
+            return cache.parse(this);
+        } else {
+            return doParse();
+        }
+    }
+
+    ELProgram doParse() {
         ELProgram prog = new ELProgram();
         allowComment(true);
         open_scope();
@@ -4100,7 +4309,14 @@ public class Parser extends Scanner
         }
     }
 
-    private static final SimpleCache<String,ELNode> cache = SimpleCache.make(5000);
+    private static final SimpleCache<String,ELNode> cache = SimpleCache.make("parser", 5000);
+
+    /**
+     * Returns the cache of parsed expression strings.
+     */
+    public static SimpleCache<String,ELNode> getExpressionCache() {
+        return cache;
+    }
 
     /**
      * Parse an expression.
@@ -19,11 +19,17 @@ package org.operamasks.el.parser;
 
 import java.io.File;
 import java.io.Reader;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
 import elite.ast.Expression;
+import elite.lang.Seq;
+import org.operamasks.el.eval.seq.IteratorSeq;
 
 public final class ParserCombinator implements Serializable
 {
@@ -36,39 +42,85 @@ public final class ParserCombinator implements Serializable
     }
 
     public Object parse(String text) {
-        Object result = grammar.parse(text);
-        if (result instanceof ELNode)
-            result = Expression.valueOf((ELNode)result);
-        return result;
+        return convert(grammar.parse(text));
+    }
+
+    public Object parse(Reader reader) {
+        return convert(grammar.parse(reader));
     }
 
     public Object parse(File file) throws IOException {
-        return parse(readText(file, null));
+        return parse(file, null);
     }
 
     public Object parse(File file, String charset) throws IOException {
-        return parse(readText(file, charset));
+        Reader reader = openReader(file, charset);
+        try {
+            return parse(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parse the input as a sequence of sentences. Returns a lazy sequence
+     * of parse results, the input is read as the sequence is traversed.
+     * The reader is not closed by this method.
+     */
+    public Seq parseAll(Reader reader) {
+        return parseAll(reader, false);
+    }
+
+    private Seq parseAll(final Reader reader, final boolean close) {
+        final Iterator<Object> results = grammar.parseAll(reader);
+        return IteratorSeq.make(new Iterator<Object>() {
+            public boolean hasNext() {
+                if (results.hasNext())
+                    return true;
+                if (close) {
+                    try {
+                        reader.close();
+                    } catch (IOException ex) {
+                        // ignored
+                    }
+                }
+                return false;
+            }
+            public Object next() {
+                return convert(results.next());
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    public Seq parseAll(ReadableByteChannel channel, String charset) {
+        return parseAll(Channels.newReader(channel, charset));
     }
 
-    private String readText(File file, String charset)
+    public Seq parseAll(File file) throws IOException {
+        return parseAll(file, null);
+    }
+
+    public Seq parseAll(File file, String charset) throws IOException {
+        return parseAll(openReader(file, charset), true);
+    }
+
+    private static Object convert(Object result) {
+        if (result instanceof ELNode)
+            result = Expression.valueOf((ELNode)result);
+        return result;
+    }
+
+    private static Reader openReader(File file, String charset)
         throws IOException
     {
-        Reader          reader;
-        StringBuilder   buf;
-        char[]          cbuf;
-        int             n;
-
+        InputStream in = new FileInputStream(file);
         if (charset == null) {
-            reader = new InputStreamReader(new FileInputStream(file));
+            return new InputStreamReader(in);
         } else {
-            reader = new InputStreamReader(new FileInputStream(file), charset);
+            return new InputStreamReader(in, charset);
         }
-
-        buf = new StringBuilder();
-        cbuf = new char[8192];
-        while ((n = reader.read(cbuf)) != -1)
-            buf.append(cbuf, 0, n);
-        reader.close();
-        return buf.toString();
     }
 }
@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.Collections;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.operamasks.el.eval.ELProgram;
+
+/**
+ * A persistent cache of parsed programs.
+ *
+ * <p>A parsed program is saved in the cache directory under a key made of
+ * the content hash of the script, the file name, the ELite version and the
+ * syntax rules the parser started with. The syntax rules defined by the
+ * script, as well as the scripts pulled in with <code>require</code>, are
+ * saved along with the program, so loading a cached program leaves the
+ * parser in the same state as parsing it.</p>
+ *
+ * <p>The cache is disabled unless the <code>elite.cache.dir</code> system
+ * property names a directory, or a default cache is installed with
+ * {@link #setDefault}. Programs that execute compile time processors or
+ * grammar actions are never cached since these may have side effects.</p>
+ */
+public class ProgramCache
+{
+    private final File dir;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final String CACHE_EXT = ".xelc";
+    private static final String VERSION = version();
+
+    private static volatile ProgramCache theDefault = createDefault();
+
+    public ProgramCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the default program cache, or null if the cache is disabled.
+     */
+    public static ProgramCache getDefault() {
+        return theDefault;
+    }
+
+    /**
+     * Install the default program cache. A null value disables the cache.
+     */
+    public static void setDefault(ProgramCache cache) {
+        theDefault = cache;
+    }
+
+    private static ProgramCache createDefault() {
+        String path = System.getProperty("elite.cache.dir");
+        return (path == null || path.length() == 0) ? null : new ProgramCache(new File(path));
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all cached programs.
+     */
+    public void clear() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(CACHE_EXT)) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * A required script and the content hash at the time it was parsed.
+     */
+    static class Dependency implements Serializable {
+        final String base;  // the file name of the requiring script
+        final String path;  // the required script path
+        final String hash;  // the content hash of required script
+
+        private static final long serialVersionUID = -2307342178920113565L;
+
+        Dependency(String base, String path, String hash) {
+            this.base = base;
+            this.path = path;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * The cache entry saved in the cache directory.
+     */
+    static class Entry implements Serializable {
+        String key;
+        ELProgram program;
+        List<Dependency> dependencies;
+        Map<String,Grammar> prefix_grammars;
+        Map<String,Grammar> infix_grammars;
+        List<Operator> operators;
+
+        private static final long serialVersionUID = 5394820129830432961L;
+    }
+
+    /**
+     * The syntax rules defined in a parser, used to find out rules
+     * introduced by parsing a program.
+     */
+    static class SyntaxRules {
+        final Map<String,Grammar> prefix_grammars;
+        final Map<String,Grammar> infix_grammars;
+        final Set<Operator> operators;
+
+        SyntaxRules(Parser parser) {
+            prefix_grammars = new HashMap<String,Grammar>(parser.getPrefixGrammars());
+            infix_grammars = new HashMap<String,Grammar>(parser.getInfixGrammars());
+            // an operator may be registered under several tokens, so the
+            // operators are compared by identity rather than by name
+            operators = Collections.newSetFromMap(new IdentityHashMap<Operator,Boolean>());
+            if (parser.lexer instanceof DefaultLexer) {
+                operators.addAll(((DefaultLexer)parser.lexer).getOperators());
+            }
+        }
+
+        boolean changed(Parser parser) {
+            return diff(parser, new Entry());
+        }
+
+        boolean diff(Parser parser, Entry entry) {
+            entry.prefix_grammars = diff(prefix_grammars, parser.getPrefixGrammars());
+            entry.infix_grammars = diff(infix_grammars, parser.getInfixGrammars());
+            entry.operators = new ArrayList<Operator>();
+            if (parser.lexer instanceof DefaultLexer) {
+                for (Operator op : ((DefaultLexer)parser.lexer).getOperators()) {
+                    if (!operators.contains(op)) {
+                        entry.operators.add(op);
+                    }
+                }
+            }
+
+            return !entry.prefix_grammars.isEmpty()
+                || !entry.infix_grammars.isEmpty()
+                || !entry.operators.isEmpty();
+        }
+
+        private static Map<String,Grammar> diff(Map<String,Grammar> before, Map<String,Grammar> after) {
+            Map<String,Grammar> result = new HashMap<String,Grammar>();
+            for (Map.Entry<String,Grammar> e : after.entrySet()) {
+                if (before.get(e.getKey()) != e.getValue()) {
+                    result.put(e.getKey(), e.getValue());
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Parse the program using the given parser. If the program was found
+     * in the cache then it's loaded and the syntax rules saved with the
+     * program are imported into the parser.
+     */
+    ELProgram parse(Parser parser) {
+        String key = makeKey(parser);
+
+        if (key != null) {
+            Entry entry = load(key, parser);
+            if (entry != null) {
+                hits.incrementAndGet();
+                restore(parser, entry);
+                if (hasSyntaxRules(entry))
+                    parser.setSyntaxKey(key);
+                return entry.program;
+            }
+            misses.incrementAndGet();
+        }
+
+        SyntaxRules rules = new SyntaxRules(parser);
+        ELProgram program = parser.doParse();
+
+        Entry entry = new Entry();
+        boolean changed = rules.diff(parser, entry);
+
+        if (key != null && parser.isCacheable()) {
+            entry.key = key;
+            entry.program = program;
+            entry.dependencies = parser.getDependencies();
+            store(entry);
+            if (changed)
+                parser.setSyntaxKey(key);
+        } else if (changed) {
+            parser.setSyntaxKey(null);
+        }
+
+        return program;
+    }
+
+    private static boolean hasSyntaxRules(Entry entry) {
+        return !entry.prefix_grammars.isEmpty()
+            || !entry.infix_grammars.isEmpty()
+            || !entry.operators.isEmpty();
+    }
+
+    private static void restore(Parser parser, Entry entry) {
+        parser.getPrefixGrammars().putAll(entry.prefix_grammars);
+        parser.getInfixGrammars().putAll(entry.infix_grammars);
+        if (!entry.operators.isEmpty()) {
+            parser.lexer.dirtyCopy();
+            for (Operator op : entry.operators) {
+                parser.lexer.addOperator(op.name, op.token, op.token2);
+            }
+        }
+    }
+
+    private static String makeKey(Parser parser) {
+        String syntax = parser.getSyntaxKey();
+        if (syntax == null) {
+            return null; // the imported syntax rules are unknown
+        }
+        if (!parser.isBuffered()) {
+            return null; // the input is read while parsing
+        }
+
+        MessageDigest md = newDigest();
+        update(md, VERSION);
+        update(md, parser.filename);
+        update(md, syntax);
+        update(md, parser.getInput());
+        return toHex(md.digest());
+    }
+
+    private Entry load(String key, Parser parser) {
+        File file = new File(dir, key + CACHE_EXT);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            Entry entry;
+            try {
+                entry = (Entry)new ObjectInputStream(in).readObject();
+            } finally {
+                in.close();
+            }
+
+            if (!key.equals(entry.key) || !validate(entry, parser)) {
+                file.delete();
+                return null;
+            }
+            return entry;
+        } catch (Exception ex) {
+            // The cache file is corrupted or was saved by an incompatible
+            // version, parse the program again and replace the cache file.
+            file.delete();
+            return null;
+        }
+    }
+
+    private static boolean validate(Entry entry, Parser parser) {
+        for (Dependency dep : entry.dependencies) {
+            Parser p = new Parser("");
+            p.setFileName(dep.base);
+            p.setResourceResolver(parser.getResourceResolver());
+            String script;
+            try {
+                script = p.readScript(dep.path);
+            } catch (Exception ex) {
+                return false;
+            }
+            if (!dep.hash.equals(digest(script))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void store(Entry entry) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+
+        File file = new File(dir, entry.key + CACHE_EXT);
+        File temp = null;
+
+        try {
+            temp = File.createTempFile(entry.key, ".tmp", dir);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+            try {
+                ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(entry);
+                oos.flush();
+            } finally {
+                out.close();
+            }
+            if (temp.renameTo(file)) {
+                temp = null;
+            }
+        } catch (IOException ex) {
+            // the program is not serializable or the cache directory is
+            // not writable, the program is used without caching
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    // Utilities
+
+    static String digest(String text) {
+        MessageDigest md = newDigest();
+        update(md, text);
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void update(MessageDigest md, String text) {
+        try {
+            if (text != null)
+                md.update(text.getBytes("UTF-8"));
+            md.update((byte)0);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0xF, 16));
+            buf.append(Character.forDigit(b & 0xF, 16));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Make a version string that changes when the ELite implementation
+     * changes, including development builds that share a version number.
+     */
+    private static String version() {
+        Package pkg = ProgramCache.class.getPackage();
+        String version = (pkg != null) ? pkg.getImplementationVersion() : null;
+        if (version == null)
+            version = "dev";
+
+        try {
+            CodeSource cs = ProgramCache.class.getProtectionDomain().getCodeSource();
+            URL location = (cs != null) ? cs.getLocation() : null;
+            if (location != null && "file".equals(location.getProtocol())) {
+                File file = new File(location.toURI());
+                if (file.isDirectory())
+                    file = new File(file, ProgramCache.class.getName().replace('.', '/') + ".class");
+                version += "@" + file.lastModified();
+            }
+        } catch (Exception ex) {
+            // use version number only
+        }
+
+        return version;
+    }
+}
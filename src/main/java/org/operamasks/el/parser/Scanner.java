@@ -17,6 +17,8 @@
 
 package org.operamasks.el.parser;
 
+import java.io.Reader;
+import java.io.IOException;
 import java.util.Map;
 import java.util.HashMap;
 import javax.el.ELException;
@@ -121,6 +123,18 @@ public class Scanner implements Cloneable
     private char[] buf;
     private int buflen;
 
+    // The streaming input source, the buffer holds a window of the input
+    // starting at the position base
+    private Reader in;
+    private int base;
+    private int keep;
+    private boolean eof;
+
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
+    // The identifiers seen in the input
+    private SymbolTable symbols = new SymbolTable();
+
     // flag to enable comments
     protected boolean allowComment;
 
@@ -232,6 +246,47 @@ public class Scanner implements Cloneable
         mark = save();
     }
 
+    /**
+     * Create a scanner to scan a character stream. The stream is read as
+     * needed into a sliding buffer, see {@link #commit}.
+     */
+    public Scanner(Reader in) {
+        this.in = in;
+        buf = new char[STREAM_BUFFER_SIZE];
+        buflen = 0;
+        next = 0;
+        pos = Position.FIRSTPOS;
+        mark = save();
+    }
+
+    /**
+     * Create a scanner that resumes scanning the input of a saved state.
+     * The input buffer is shared with the saved state.
+     */
+    Scanner(Scanner state) {
+        buf = state.buf;
+        buflen = state.buflen;
+        filename = state.filename;
+        allowComment = state.allowComment;
+        keywords = state.keywords;
+        restore(state);
+        mark = save();
+    }
+
+    /**
+     * Returns true if the whole input is held in the buffer.
+     */
+    final boolean isBuffered() {
+        return in == null;
+    }
+
+    /**
+     * Returns the input text.
+     */
+    String getInput() {
+        return new String(buf, 0, buflen);
+    }
+
     /**
      * Set the file name of input.
      */
@@ -278,19 +333,110 @@ public class Scanner implements Cloneable
      * Read next character.
      */
     protected int nextchar() {
-        if (next < buflen) {
+        if (next - base < buflen || fill(next)) {
             pos++;
-            return ch = buf[next++];
+            return ch = buf[next++ - base];
         } else {
             return ch = EOI;
         }
     }
 
+    /**
+     * Tell the scanner that the input before the given position will not
+     * be scanned again, so it can be discarded from a streaming buffer.
+     */
+    protected void commit(int position) {
+        if (position > keep)
+            keep = position;
+    }
+
+    /**
+     * Read more characters from the streaming input until the character
+     * at the given position is in the buffer. Returns false at the end of
+     * input.
+     */
+    private boolean fill(int position) {
+        if (in == null || eof)
+            return false;
+
+        try {
+            while (position - base >= buflen) {
+                if (buflen == buf.length) {
+                    int discard = Math.min(keep, next - 1) - base;
+                    if (discard > buf.length / 2) {
+                        System.arraycopy(buf, discard, buf, 0, buflen - discard);
+                        base += discard;
+                        buflen -= discard;
+                    } else {
+                        char[] newbuf = new char[buf.length * 2];
+                        System.arraycopy(buf, 0, newbuf, 0, buflen);
+                        buf = newbuf;
+                    }
+                }
+
+                int n = in.read(buf, buflen, buf.length - buflen);
+                if (n < 0) {
+                    eof = true;
+                    return false;
+                }
+                buflen += n;
+            }
+            return true;
+        } catch (IOException ex) {
+            throw new ELException(ex);
+        }
+    }
+
+    /**
+     * Returns the index of the current character in the input buffer,
+     * or -1 if the current character is not taken from the buffer.
+     */
+    final int index() {
+        if (in != null)
+            return -1; // only a window of the input is available
+        int i = next - 1;
+        return (i >= 0 && i < buflen && buf[i] == ch) ? i : -1;
+    }
+
+    /**
+     * Returns the input buffer. The buffer must not be modified.
+     */
+    final char[] buffer() {
+        return buf;
+    }
+
+    final int bufferLength() {
+        return buflen;
+    }
+
+    /**
+     * Advance the scanner to the character at the given index in the
+     * input buffer. The skipped characters must not contain line breaks.
+     */
+    final void skipTo(int index) {
+        if (index < buflen) {
+            pos += index + 1 - next;
+            next = index + 1;
+            ch = buf[index];
+        } else {
+            pos += buflen - next;
+            next = buflen;
+            ch = EOI;
+        }
+    }
+
+    /**
+     * Returns the interned identifier for characters in the input buffer.
+     */
+    final String symbol(int start, int len) {
+        return symbols.lookup(buf, start, len);
+    }
+
     /**
      * Lookahead next character.
      */
     protected int lookahead(int n) {
-        return (next+n < buflen) ? buf[next+n] : EOI;
+        return (next+n - base < buflen || fill(next+n)) ? buf[next+n - base] : EOI;
     }
 
     /**
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.parser;
+
+/**
+ * A parser-local symbol table that maps a range of the input buffer to
+ * an interned identifier string. Identifiers that occur repeatedly in the
+ * input are looked up without allocating a new string or consulting the
+ * global intern pool.
+ */
+final class SymbolTable
+{
+    private String[] table = new String[64];
+    private int count;
+
+    /**
+     * Returns the interned string for characters in the given range.
+     */
+    String lookup(char[] buf, int start, int len) {
+        int h = 0;
+        for (int i = start, end = start + len; i < end; i++)
+            h = 31*h + buf[i];
+
+        String[] tab = table;
+        int mask = tab.length - 1;
+        int i = (h ^ (h >>> 16)) & mask;
+
+        String sym;
+        while ((sym = tab[i]) != null) {
+            if (sym.hashCode() == h && matches(sym, buf, start, len))
+                return sym;
+            i = (i + 1) & mask;
+        }
+
+        sym = new String(buf, start, len).intern();
+        tab[i] = sym;
+        if (++count * 4 > tab.length * 3)
+            rehash();
+        return sym;
+    }
+
+    private static boolean matches(String sym, char[] buf, int start, int len) {
+        if (sym.length() != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (sym.charAt(i) != buf[start + i])
+                return false;
+        }
+        return true;
+    }
+
+    private void rehash() {
+        String[] oldtab = table;
+        String[] newtab = new String[oldtab.length * 2];
+        int mask = newtab.length - 1;
+
+        for (String sym : oldtab) {
+            if (sym != null) {
+                int h = sym.hashCode();
+                int i = (h ^ (h >>> 16)) & mask;
+                while (newtab[i] != null)
+                    i = (i + 1) & mask;
+                newtab[i] = sym;
+            }
+        }
+        table = newtab;
+    }
+}
@@ -26,9 +26,11 @@ import javax.el.ELResolver;
 import javax.el.ELContext;
 import javax.el.PropertyNotWritableException;
 import elite.lang.Range;
+import org.operamasks.el.eval.ArrayAccess;
 import static org.operamasks.el.eval.TypeCoercion.*;
 
 public class ArrayELResolver extends ELResolver
+    implements TypedELResolver
 {
     private boolean isReadOnly;
 
@@ -71,13 +73,13 @@ public class ArrayELResolver extends ELResolver
             } else if ("first".equals(property)) {
                 elctx.setPropertyResolved(true);
                 if (Array.getLength(base) > 0) {
-                    return Array.get(base, 0);
+                    return ArrayAccess.get(base, 0);
                 }
             } else if ("last".equals(property)) {
                 elctx.setPropertyResolved(true);
                 int length = Array.getLength(base);
                 if (length > 0) {
-                    return Array.get(base, length - 1);
+                    return ArrayAccess.get(base, length - 1);
                 }
             }
         } else if (property instanceof Number) {
@@ -85,7 +87,7 @@ public class ArrayELResolver extends ELResolver
             int length = Array.getLength(base);
             int index = ((Number)property).intValue();
             if (index >= 0 && index < length) {
-                return Array.get(base, index);
+                return ArrayAccess.get(base, index);
             }
         } else if ((property instanceof List) && ((List)property).isEmpty()) {
             // handle empty range
@@ -122,7 +124,7 @@ public class ArrayELResolver extends ELResolver
             int length = Array.getLength(base);
             int index = ((Number)property).intValue();
             rangeCheck(index, length);
-            Array.set(base, index, coerce(elctx, value, type));
+            ArrayAccess.set(base, index, coerce(elctx, value, type));
             elctx.setPropertyResolved(true);
         }
     }
@@ -134,6 +136,10 @@ public class ArrayELResolver extends ELResolver
         return isReadOnly;
     }
 
+    public boolean isResolvable(Class<?> baseClass) {
+        return baseClass != null && baseClass.isArray();
+    }
+
     public Iterator<FeatureDescriptor> getFeatureDescriptors(ELContext elctx, Object base) {
         return null;
     }
@@ -180,7 +186,7 @@ public class ArrayELResolver extends ELResolver
             System.arraycopy(base, (int)begin, array, 0, size);
         } else {
             for (int i = 0; i < size; i++, begin += step) {
-                Array.set(array, i, Array.get(base, (int)begin));
+                ArrayAccess.set(array, i, ArrayAccess.get(base, (int)begin));
             }
         }
         return array;
@@ -222,7 +228,7 @@ public class ArrayELResolver extends ELResolver
         } else {
             Class<?> type = base.getClass().getComponentType();
             for (int i = 0; i < size; i++, begin += step) {
-                Array.set(base, (int)begin, coerce(elctx, Array.get(value, i), type));
+                ArrayAccess.set(base, (int)begin, coerce(elctx, ArrayAccess.get(value, i), type));
             }
         }
     }
@@ -256,7 +262,7 @@ public class ArrayELResolver extends ELResolver
         Class<?> type = base.getClass().getComponentType();
         Iterator it = value.iterator();
         for (int i = 0; i < size && it.hasNext(); i++, begin += step) {
-            Array.set(base, (int)begin, coerce(elctx, it.next(), type));
+            ArrayAccess.set(base, (int)begin, coerce(elctx, it.next(), type));
         }
     }
 
@@ -288,7 +294,7 @@ public class ArrayELResolver extends ELResolver
 
         value = coerce(elctx, value, base.getClass().getComponentType());
         for (int i = 0; i < size; i++, begin += step) {
-            Array.set(base, (int)begin, value);
+            ArrayAccess.set(base, (int)begin, value);
         }
     }
 
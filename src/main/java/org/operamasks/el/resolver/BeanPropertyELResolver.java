@@ -27,6 +27,7 @@ import java.util.Iterator;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import javax.el.ELResolver;
@@ -50,6 +51,7 @@ import org.operamasks.el.eval.closure.ClassDefinition;
 import org.operamasks.el.eval.TypeCoercion;
 
 public class BeanPropertyELResolver extends ELResolver
+    implements TypedELResolver
 {
     public Class<?> getType(ELContext context, Object base, Object property) {
         if (context == null) {
@@ -72,31 +74,30 @@ public class BeanPropertyELResolver extends ELResolver
         
         // Access class field
         if (base instanceof Class) {
-            Field field = getBeanField((Class)base, property);
-            if (field != null && Modifier.isStatic(field.getModifiers())) {
+            Accessor acc = getAccessor((Class)base, property);
+            if (acc.staticField) {
                 context.setPropertyResolved(true);
-                return field.getType();
+                return acc.field.getType();
             }
         }
 
         // Don't expose static properties for a PropertyDelegate
         if (!(base instanceof PropertyDelegate)) {
             // If the property has read or write methods then get the property type
-            BeanProperty bp = getBeanProperty(base.getClass(), property);
-            if (bp != null) {
-                if (bp.getReadMethod() == null) {
+            Accessor acc = getAccessor(base.getClass(), property);
+            if (acc.property != null) {
+                if (acc.read == null) {
                     throw new PropertyNotFoundException();
                 } else {
                     context.setPropertyResolved(true);
-                    return bp.getType();
+                    return acc.type;
                 }
             }
 
             // If field present and accessible then return the field type.
-            Field field = getBeanField(base.getClass(), property);
-            if (field != null) {
+            if (acc.field != null) {
                 context.setPropertyResolved(true);
-                return field.getType();
+                return acc.field.getType();
             }
         }
 
@@ -143,9 +144,9 @@ public class BeanPropertyELResolver extends ELResolver
 
         // Access class field
         if (base instanceof Class) {
-            Field field = getBeanField((Class)base, property);
-            if (field != null && Modifier.isStatic(field.getModifiers())) {
-                Object value = getFieldValue(field, null);
+            Accessor acc = getAccessor((Class)base, property);
+            if (acc.staticField) {
+                Object value = getStaticFieldValue(acc);
                 context.setPropertyResolved(true);
                 return value;
             }
@@ -154,21 +155,20 @@ public class BeanPropertyELResolver extends ELResolver
         // Dont' expose properties for a PropertyDelegate
         if (!(base instanceof PropertyDelegate)) {
             // If the property has read or write methods then get the property value
-            BeanProperty bp = getBeanProperty(base.getClass(), property);
-            if (bp != null) {
-                if (bp.getReadMethod() == null) {
+            Accessor acc = getAccessor(base.getClass(), property);
+            if (acc.property != null) {
+                if (acc.read == null) {
                     throw new PropertyNotFoundException();
                 } else {
-                    Object value = getPropertyValue(bp.getReadMethod(), base);
+                    Object value = getPropertyValue(acc.read, base);
                     context.setPropertyResolved(true);
                     return value;
                 }
             }
 
             // If field present and accessible then return the field value.
-            Field field = getBeanField(base.getClass(), property);
-            if (field != null) {
-                Object value = getFieldValue(field, base);
+            if (acc.field != null) {
+                Object value = getFieldValue(acc.field, base);
                 context.setPropertyResolved(true);
                 return value;
             }
@@ -213,12 +213,12 @@ public class BeanPropertyELResolver extends ELResolver
 
         // Access class field
         if (base instanceof Class) {
-            Field field = getBeanField((Class)base, property);
-            if (field != null && Modifier.isStatic(field.getModifiers())) {
-                if (Modifier.isFinal(field.getModifiers())) {
+            Accessor acc = getAccessor((Class)base, property);
+            if (acc.staticField) {
+                if (acc.constant) {
                     throw new PropertyNotWritableException(((Class)base).getName() + "." + property);
                 } else {
-                    setFieldValue(field, null, value);
+                    setFieldValue(acc.field, null, value);
                     context.setPropertyResolved(true);
                     return;
                 }
@@ -228,22 +228,21 @@ public class BeanPropertyELResolver extends ELResolver
         // Don't expose static properties for a PropertyDelegate
         if (!(base instanceof PropertyDelegate)) {
             // If the property has read or write methods then set the property value
-            BeanProperty bp = getBeanProperty(base.getClass(), property);
-            if (bp != null) {
-                if (bp.getWriteMethod() == null) {
+            Accessor acc = getAccessor(base.getClass(), property);
+            if (acc.property != null) {
+                if (acc.write == null) {
                     throw new PropertyNotWritableException();
                 } else {
-                    value = TypeCoercion.coerce(context, value, bp.getType());
-                    setPropertyValue(bp.getWriteMethod(), base, value);
+                    value = acc.coerce(context, value);
+                    setPropertyValue(acc.write, base, value);
                     context.setPropertyResolved(true);
                     return;
                 }
             }
 
             // If field present and accessible then set the field value.
-            Field field = getBeanField(base.getClass(), property);
-            if (field != null) {
-                setFieldValue(field, base, value);
+            if (acc.field != null) {
+                setFieldValue(acc.field, base, value);
                 context.setPropertyResolved(true);
                 return;
             }
@@ -289,27 +288,26 @@ public class BeanPropertyELResolver extends ELResolver
 
         // Access class field
         if (base instanceof Class) {
-            Field field = getBeanField((Class)base, property);
-            if (field != null && Modifier.isStatic(field.getModifiers())) {
+            Accessor acc = getAccessor((Class)base, property);
+            if (acc.staticField) {
                 context.setPropertyResolved(true);
-                return Modifier.isFinal(field.getModifiers());
+                return acc.constant;
             }
         }
 
         // Don't expose static properties for a PropertyDelegate
         if (!(base instanceof PropertyDelegate)) {
             // If the property has read or write methods then check the write method
-            BeanProperty bp = getBeanProperty(base.getClass(), property);
-            if (bp != null) {
+            Accessor acc = getAccessor(base.getClass(), property);
+            if (acc.property != null) {
                 context.setPropertyResolved(true);
-                return bp.getWriteMethod() == null;
+                return acc.write == null;
             }
 
             // If field present and accessible then return false.
-            Field field = getBeanField(base.getClass(), property);
-            if (field != null) {
+            if (acc.field != null) {
                 context.setPropertyResolved(true);
-                return Modifier.isFinal(field.getModifiers());
+                return Modifier.isFinal(acc.field.getModifiers());
             }
         }
 
@@ -333,6 +331,10 @@ public class BeanPropertyELResolver extends ELResolver
         throw new PropertyNotFoundException();
     }
 
+    public boolean isResolvable(Class<?> baseClass) {
+        return baseClass != null;
+    }
+
     public Iterator<FeatureDescriptor> getFeatureDescriptors(ELContext context, Object base) {
         if (base == null) {
             return null;
@@ -422,6 +424,24 @@ public class BeanPropertyELResolver extends ELResolver
         }
     }
 
+    /**
+     * Returns the value of a static field. The value of a static final
+     * field of primitive, String or enum type is read once and then used
+     * as a constant. Other final fields may still be changed, as System.out
+     * is by System.setOut, so they are read on each access.
+     */
+    private Object getStaticFieldValue(Accessor acc) {
+        if (!acc.folded) {
+            return getFieldValue(acc.field, null);
+        }
+
+        Object value = acc.value;
+        if (value == Accessor.UNRESOLVED) {
+            acc.value = value = getFieldValue(acc.field, null);
+        }
+        return value;
+    }
+
     protected void setFieldValue(Field field, Object base, Object value) {
         try {
             field.set(base, value);
@@ -456,7 +476,7 @@ public class BeanPropertyELResolver extends ELResolver
         }
     }
 
-    private SimpleCache<Class,BeanFields> cache = SimpleCache.make(200);
+    private SimpleCache<Class,BeanFields> cache = SimpleCache.make("bean.fields", 200);
 
     protected Field getBeanField(Class baseClass, Object prop) {
         BeanFields fields = cache.get(baseClass);
@@ -466,4 +486,119 @@ public class BeanPropertyELResolver extends ELResolver
         }
         return fields.getBeanField(prop.toString());
     }
+
+    /**
+     * The bean property and field found for a property name of a class,
+     * with the accessor methods resolved.
+     */
+    protected static final class Accessor {
+        final BeanProperty property;
+        final Method read;
+        final Method write;
+        final Class<?> type;
+        final Class<?> boxedType;
+        final Field field;
+        final boolean staticField;
+        final boolean constant;
+        final boolean folded;
+
+        // the value of a folded constant field, resolved on first access
+        volatile Object value = UNRESOLVED;
+        static final Object UNRESOLVED = new Object();
+
+        Accessor(BeanProperty property, Field field) {
+            this.property = property;
+            this.field = field;
+            if (field != null && Modifier.isStatic(field.getModifiers())) {
+                Class<?> ftype = field.getType();
+                this.staticField = true;
+                this.constant = Modifier.isFinal(field.getModifiers());
+                this.folded = constant && (ftype.isPrimitive() || ftype == String.class || ftype.isEnum());
+            } else {
+                this.staticField = false;
+                this.constant = false;
+                this.folded = false;
+            }
+            if (property != null) {
+                this.read = accessible(property.getReadMethod());
+                this.write = accessible(property.getWriteMethod());
+                this.type = property.getType();
+                this.boxedType = TypeCoercion.getBoxedType(type);
+            } else {
+                this.read = null;
+                this.write = null;
+                this.type = null;
+                this.boxedType = null;
+            }
+        }
+
+        private static Method accessible(Method m) {
+            if (m != null) {
+                try {
+                    // skip the access check on invocation
+                    m.setAccessible(true);
+                } catch (RuntimeException ex) {
+                    // the method is still accessible as public method
+                }
+            }
+            return m;
+        }
+
+        Object coerce(ELContext context, Object value) {
+            if (value != null && boxedType.isInstance(value)) {
+                return value;
+            } else {
+                return TypeCoercion.coerce(context, value, type);
+            }
+        }
+    }
+
+    /**
+     * The accessors found for a class, indexed by property name.
+     */
+    private static final class AccessorTable {
+        final Class<?> type;
+        final ConcurrentHashMap<String,Accessor> accessors =
+            new ConcurrentHashMap<String,Accessor>();
+
+        AccessorTable(Class<?> type) {
+            this.type = type;
+        }
+    }
+
+    // the accessor tables are shared unless the lookup methods are overridden
+    private static final SimpleCache<Class,AccessorTable> sharedAccessors =
+        SimpleCache.make("bean.accessors", 1000);
+
+    private final SimpleCache<Class,AccessorTable> accessors =
+        getClass() == BeanPropertyELResolver.class
+            ? sharedAccessors
+            : SimpleCache.<Class,AccessorTable>make(1000);
+
+    // the most recently used table, beans of the same class are
+    // usually accessed in a row
+    private volatile AccessorTable lastAccessors;
+
+    /**
+     * Returns the bean property and field for the given property of a class.
+     */
+    protected Accessor getAccessor(Class baseClass, Object property) {
+        AccessorTable table = lastAccessors;
+        if (table == null || table.type != baseClass) {
+            table = accessors.get(baseClass);
+            if (table == null) {
+                table = new AccessorTable(baseClass);
+                accessors.put(baseClass, table);
+            }
+            lastAccessors = table;
+        }
+
+        String name = property.toString();
+        Accessor acc = table.accessors.get(name);
+        if (acc == null) {
+            acc = new Accessor(getBeanProperty(baseClass, name), getBeanField(baseClass, name));
+            table.accessors.put(name, acc);
+        }
+        return acc;
+    }
 }
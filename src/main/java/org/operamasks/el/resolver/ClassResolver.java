@@ -17,13 +17,34 @@
 
 package org.operamasks.el.resolver;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.JarURLConnection;
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.WeakHashMap;
+import java.util.Enumeration;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import javax.el.ELContext;
 import org.operamasks.util.Utils;
 
+/**
+ * Resolves simple class names against the imported packages and classes.
+ *
+ * <p>Both found and missing names are cached, so an identifier that is
+ * not a class name is looked up in the class loader only once. When the
+ * package index is enabled, the classes in each imported package are
+ * listed from the class path, and a name not found in the listing of any
+ * package is rejected without asking the class loader.</p>
+ */
 public class ClassResolver
 {
     public static ClassResolver getInstance(ELContext context) {
@@ -34,11 +55,31 @@ public class ClassResolver
         }
         return cr;
     }
-    
+
+    private static volatile boolean indexEnabled = Boolean.getBoolean("elite.class.index");
+
+    /**
+     * Enable or disable the package index. The index assumes that all
+     * classes of an imported package can be listed from the class path,
+     * which is not true for classes defined at run time.
+     */
+    public static void setPackageIndexEnabled(boolean enabled) {
+        indexEnabled = enabled;
+    }
+
+    public static boolean isPackageIndexEnabled() {
+        return indexEnabled;
+    }
+
     private ClassLoader          loader;
-    private List<String>         packages = new ArrayList<String>();
-    private Map<String,String>   aliases  = new HashMap<String,String>();
-    private Map<String,Class<?>> cache    = new HashMap<String,Class<?>>();
+    private List<String>         packages = new CopyOnWriteArrayList<String>();
+    private Map<String,String>   aliases  = new ConcurrentHashMap<String,String>();
+    private Map<String,Class<?>> cache    = new ConcurrentHashMap<String,Class<?>>();
+    private Set<String>          misses   = newConcurrentSet();
+    private volatile int         version;
+
+    // limits the number of missing names remembered
+    private static final int MAX_MISSES = 10000;
 
     public ClassResolver(ClassLoader loader) {
         this.loader = loader;
@@ -51,27 +92,83 @@ public class ClassResolver
         addImport("java.math.BigDecimal");
     }
 
-    public void addImport(String name) {
+    private ClassResolver(ClassResolver other) {
+        this.loader = other.loader;
+        this.packages.addAll(other.packages);
+        this.aliases.putAll(other.aliases);
+        this.cache.putAll(other.cache);
+        this.misses.addAll(other.misses);
+        this.version = other.version;
+    }
+
+    /**
+     * Returns a copy of this resolver. Imports added to the copy are not
+     * visible to this resolver and vice versa.
+     */
+    public synchronized ClassResolver fork() {
+        return new ClassResolver(this);
+    }
+
+    public synchronized void addImport(String name) {
         if (name.endsWith(".*")) {
             String pkg = name.substring(0, name.length()-2);
-            if (!packages.contains(pkg)) {
-                packages.add(pkg);
+            if (packages.contains(pkg)) {
+                return;
             }
+            packages.add(pkg);
         } else {
             String simpleName = name.substring(name.lastIndexOf('.') + 1);
-            aliases.put(simpleName, name);
+            if (name.equals(aliases.put(simpleName, name))) {
+                return;
+            }
         }
+
+        // the imported names may be missing before
+        misses.clear();
+        version++;
+    }
+
+    /**
+     * Returns the version of this resolver, which is increased whenever
+     * a package or class is imported.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Forget the resolved and missing class names, used when classes
+     * are made available to the class loader.
+     */
+    public void clearCache() {
+        cache.clear();
+        misses.clear();
     }
 
     public Class<?> resolveClass(String name)
         throws ClassNotFoundException
     {
+        Class<?> c = findClass(name);
+        if (c == null) {
+            String qname = aliases.get(name);
+            throw new ClassNotFoundException(qname != null ? qname : name);
+        }
+        return c;
+    }
+
+    /**
+     * Resolve a class name, returns null if the class not found.
+     */
+    public Class<?> findClass(String name) {
         Class<?> c;
         String qname;
 
         if ((c = cache.get(name)) != null) {
             return c;
         }
+        if (misses.contains(name)) {
+            return null;
+        }
 
         if (name.indexOf('.') == -1) {
             qname = aliases.get(name);
@@ -80,11 +177,14 @@ public class ClassResolver
                     cache.put(name, c);
                     return c;
                 } else {
-                    throw new ClassNotFoundException(qname);
+                    addMiss(name);
+                    return null;
                 }
             }
 
             for (String pkg : packages) {
+                if (!mayContain(pkg, name))
+                    continue;
                 qname = pkg + "." + name;
                 if ((c = resolveClass0(qname)) != null) {
                     cache.put(name, c);
@@ -97,10 +197,17 @@ public class ClassResolver
             cache.put(name, c);
             return c;
         } else {
-            throw new ClassNotFoundException(name);
+            addMiss(name);
+            return null;
         }
     }
 
+    private void addMiss(String name) {
+        if (misses.size() >= MAX_MISSES)
+            misses.clear();
+        misses.add(name);
+    }
+
     protected Class<?> resolveClass0(String name) {
         try {
             return Utils.findClass(name, loader);
@@ -110,4 +217,101 @@ public class ClassResolver
             return null;
         }
     }
+
+    private static <E> Set<E> newConcurrentSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<E,Boolean>());
+    }
+
+    // Package index -----------------------
+
+    // the class names listed in packages, indexed by class loader and package
+    // name, a null value indicates that a package can not be listed
+    private static final Map<ClassLoader,Map<String,Set<String>>> indexes =
+        new WeakHashMap<ClassLoader,Map<String,Set<String>>>();
+
+    private static final Set<String> UNKNOWN = Collections.emptySet();
+
+    /**
+     * Returns false if the package is known not to contain the class.
+     */
+    private boolean mayContain(String pkg, String name) {
+        if (!indexEnabled) {
+            return true;
+        }
+
+        Map<String,Set<String>> index;
+        synchronized (indexes) {
+            index = indexes.get(loader);
+            if (index == null) {
+                index = new ConcurrentHashMap<String,Set<String>>();
+                indexes.put(loader, index);
+            }
+        }
+
+        Set<String> classes = index.get(pkg);
+        if (classes == null) {
+            classes = listPackage(pkg);
+            index.put(pkg, classes);
+        }
+        return classes == UNKNOWN || classes.contains(name);
+    }
+
+    /**
+     * List the top level classes in a package from the class path.
+     */
+    private Set<String> listPackage(String pkg) {
+        String path = pkg.replace('.', '/');
+        Set<String> classes = new HashSet<String>();
+
+        try {
+            ClassLoader cl = (loader != null) ? loader : ClassLoader.getSystemClassLoader();
+            Enumeration<URL> urls = cl.getResources(path);
+            if (!urls.hasMoreElements()) {
+                return UNKNOWN;
+            }
+
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                if ("file".equals(url.getProtocol())) {
+                    File dir = new File(URLDecoder.decode(url.getPath(), "UTF-8"));
+                    String[] files = dir.list();
+                    if (files == null)
+                        return UNKNOWN;
+                    for (String file : files) {
+                        addClass(classes, file);
+                    }
+                } else if ("jar".equals(url.getProtocol())) {
+                    JarURLConnection conn = (JarURLConnection)url.openConnection();
+                    conn.setUseCaches(false);
+                    JarFile jar = conn.getJarFile();
+                    try {
+                        String prefix = path + "/";
+                        for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+                            String entry = e.nextElement().getName();
+                            if (entry.startsWith(prefix) && entry.indexOf('/', prefix.length()) == -1) {
+                                addClass(classes, entry.substring(prefix.length()));
+                            }
+                        }
+                    } finally {
+                        jar.close();
+                    }
+                } else {
+                    // the classes in the package can not be listed
+                    return UNKNOWN;
+                }
+            }
+        } catch (IOException ex) {
+            return UNKNOWN;
+        } catch (RuntimeException ex) {
+            return UNKNOWN;
+        }
+
+        return classes;
+    }
+
+    private static void addClass(Set<String> classes, String file) {
+        if (file.endsWith(".class") && file.indexOf('$') == -1) {
+            classes.add(file.substring(0, file.length() - 6));
+        }
+    }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.resolver;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.el.ELContext;
+import javax.el.ELResolver;
+import javax.el.CompositeELResolver;
+import javax.el.ResourceBundleELResolver;
+
+/**
+ * A composite ELResolver that asks only the resolvers able to resolve
+ * properties of the base object's class.
+ *
+ * <p>The resolvers are consulted in the order they were added, as in
+ * {@link CompositeELResolver}. The resolvers that can be skipped for a
+ * base class are found out once from {@link TypedELResolver}, the
+ * resolvers not implementing it are always consulted. The feature
+ * descriptors and common property type are still collected from all
+ * resolvers.</p>
+ */
+public class DispatchELResolver extends CompositeELResolver
+{
+    private volatile Dispatch dispatch = new Dispatch(new ELResolver[0]);
+
+    /**
+     * The resolvers and the resolvers selected for base classes. A new
+     * instance is published when a resolver is added, so a selection made
+     * from the old resolvers is never cached with the new ones.
+     */
+    private static final class Dispatch {
+        final ELResolver[] resolvers;
+        final ConcurrentHashMap<Class<?>,ELResolver[]> selected =
+            new ConcurrentHashMap<Class<?>,ELResolver[]>();
+        volatile ELResolver[] nullBase;
+
+        Dispatch(ELResolver[] resolvers) {
+            this.resolvers = resolvers;
+        }
+
+        ELResolver[] get(Object base) {
+            ELResolver[] a;
+            if (base == null) {
+                if ((a = nullBase) == null)
+                    nullBase = a = select(null);
+            } else {
+                Class<?> c = base.getClass();
+                if ((a = selected.get(c)) == null) {
+                    a = select(c);
+                    selected.put(c, a);
+                }
+            }
+            return a;
+        }
+
+        private ELResolver[] select(Class<?> c) {
+            List<ELResolver> list = new ArrayList<ELResolver>(resolvers.length);
+            for (ELResolver r : resolvers) {
+                if (isResolvable(r, c)) {
+                    list.add(r);
+                }
+            }
+            return list.toArray(new ELResolver[list.size()]);
+        }
+    }
+
+    public synchronized void add(ELResolver resolver) {
+        super.add(resolver);
+
+        ELResolver[] resolvers = dispatch.resolvers;
+        ELResolver[] a = new ELResolver[resolvers.length + 1];
+        System.arraycopy(resolvers, 0, a, 0, resolvers.length);
+        a[resolvers.length] = resolver;
+        dispatch = new Dispatch(a);
+    }
+
+    private ELResolver[] getResolvers(Object base) {
+        return dispatch.get(base);
+    }
+
+    private static boolean isResolvable(ELResolver r, Class<?> c) {
+        if (r instanceof TypedELResolver) {
+            return ((TypedELResolver)r).isResolvable(c);
+        } else if (r.getClass() == ResourceBundleELResolver.class) {
+            return c != null && ResourceBundle.class.isAssignableFrom(c);
+        } else {
+            return true;
+        }
+    }
+
+    public Object getValue(ELContext context, Object base, Object property) {
+        context.setPropertyResolved(false);
+        for (ELResolver r : getResolvers(base)) {
+            Object value = r.getValue(context, base, property);
+            if (context.isPropertyResolved()) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    public Object invoke(ELContext context, Object base, Object method,
+                         Class<?>[] paramTypes, Object[] params) {
+        context.setPropertyResolved(false);
+        for (ELResolver r : getResolvers(base)) {
+            Object value = r.invoke(context, base, method, paramTypes, params);
+            if (context.isPropertyResolved()) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    public Class<?> getType(ELContext context, Object base, Object property) {
+        context.setPropertyResolved(false);
+        for (ELResolver r : getResolvers(base)) {
+            Class<?> type = r.getType(context, base, property);
+            if (context.isPropertyResolved()) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    public void setValue(ELContext context, Object base, Object property, Object value) {
+        context.setPropertyResolved(false);
+        for (ELResolver r : getResolvers(base)) {
+            r.setValue(context, base, property, value);
+            if (context.isPropertyResolved()) {
+                return;
+            }
+        }
+    }
+
+    public boolean isReadOnly(ELContext context, Object base, Object property) {
+        context.setPropertyResolved(false);
+        for (ELResolver r : getResolvers(base)) {
+            boolean readOnly = r.isReadOnly(context, base, property);
+            if (context.isPropertyResolved()) {
+                return readOnly;
+            }
+        }
+        return false;
+    }
+}
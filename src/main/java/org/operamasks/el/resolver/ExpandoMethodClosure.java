@@ -44,9 +44,14 @@ class ExpandoMethodClosure extends MethodClosure
         return target;
     }
 
-    public void addMethod(Method method) {
+    /**
+     * Returns an expando method closure with the given Java method added.
+     */
+    public ExpandoMethodClosure addMethod(Method method) {
         if (delegate instanceof JavaMethodClosure) { // FIXME otherwise?
-            delegate = ((JavaMethodClosure)delegate).addMethod(method);
+            return new ExpandoMethodClosure(name, target, ((JavaMethodClosure)delegate).addMethod(method));
+        } else {
+            return this;
         }
     }
     
@@ -57,7 +57,8 @@ abstract class JavaMethodClosure extends MethodClosure
     }
 
     /**
-     * Add a Java method to this method closure.
+     * Returns a method closure with the given Java method added. The
+     * method closure may be shared so it's never modified.
      */
     protected abstract JavaMethodClosure addMethod(Method method);
 
@@ -28,9 +28,11 @@ import javax.el.ELResolver;
 import javax.el.ELContext;
 import javax.el.PropertyNotWritableException;
 import elite.lang.Range;
+import org.operamasks.el.eval.ArrayAccess;
 
 @SuppressWarnings("unchecked")
 public class ListELResolver extends ELResolver
+    implements TypedELResolver
 {
     private boolean isReadOnly;
 
@@ -145,6 +147,10 @@ public class ListELResolver extends ELResolver
         return false;
     }
 
+    public boolean isResolvable(Class<?> baseClass) {
+        return baseClass != null && List.class.isAssignableFrom(baseClass);
+    }
+
     public Iterator<FeatureDescriptor> getFeatureDescriptors(ELContext context, Object base) {
         return null;
     }
@@ -248,7 +254,7 @@ public class ListELResolver extends ELResolver
         }
 
         for (int i = 0; i < size; i++, begin += step) {
-            set(base, (int)begin, Array.get(value, i));
+            set(base, (int)begin, ArrayAccess.get(value, i));
         }
     }
 
@@ -30,6 +30,7 @@ import javax.el.PropertyNotWritableException;
 
 @SuppressWarnings("unchecked")
 public class MapELResolver extends ELResolver
+    implements TypedELResolver
 {
     private boolean isReadOnly;
 
@@ -79,6 +80,10 @@ public class MapELResolver extends ELResolver
         return false;
     }
 
+    public boolean isResolvable(Class<?> baseClass) {
+        return baseClass != null && Map.class.isAssignableFrom(baseClass);
+    }
+
     public Iterator<FeatureDescriptor> getFeatureDescriptors(ELContext context, Object base) {
         if (base != null && base instanceof Map) {
             Map map = (Map) base;
@@ -19,14 +19,15 @@ package org.operamasks.el.resolver;
 
 import java.util.Map;
 import java.util.HashMap;
-import java.util.SortedSet;
-import java.util.Comparator;
-import java.util.TreeSet;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import javax.el.ELContext;
@@ -39,6 +40,15 @@ import org.operamasks.el.eval.closure.MethodClosure;
 import org.operamasks.el.eval.EvaluationException;
 import org.operamasks.util.SimpleCache;
 
+/**
+ * Resolves global, expando and Java methods.
+ *
+ * <p>The method registries are immutable snapshots replaced atomically on
+ * updates, so methods can be resolved without locking while modules are
+ * imported or expando methods are attached by other threads. Every update
+ * increases the {@linkplain #getVersion version} of the resolver, which
+ * can be checked by callers caching the resolved methods.</p>
+ */
 public final class MethodResolver
 {
     public static MethodResolver getInstance(ELContext context) {
@@ -50,20 +60,36 @@ public final class MethodResolver
         return resolver;
     }
 
+    /**
+     * Returns a copy of this resolver. Methods added to the copy are not
+     * visible to this resolver and vice versa, the registries are shared
+     * until one of the resolvers is updated.
+     */
+    public MethodResolver fork() {
+        MethodResolver copy = new MethodResolver();
+        copy.global.copyFrom(global);
+        synchronized (imported) {
+            copy.imported.addAll(imported);
+        }
+        return copy;
+    }
+
     public void addModule(ELContext elctx, Class base, String prefix) {
-        if (!imported.contains(base)) {
-            // Invoke module initialization method if present
-            try {
-                Method init = base.getMethod("__init__", ELContext.class);
-                if (Modifier.isStatic(init.getModifiers())) {
-                    init.invoke(null, elctx);
+        synchronized (imported) {
+            if (!imported.contains(base)) {
+                // Invoke module initialization method if present
+                try {
+                    Method init = base.getMethod("__init__", ELContext.class);
+                    if (Modifier.isStatic(init.getModifiers())) {
+                        init.invoke(null, elctx);
+                    }
+                } catch (NoSuchMethodException ex) {
+                    // ok
+                } catch (Exception ex) {
+                    throw new EvaluationException(elctx, ex);
                 }
-            } catch (NoSuchMethodException ex) {
-                // ok
-            } catch (Exception ex) {
-                throw new EvaluationException(elctx, ex);
+                imported.add(base);
             }
-            imported.add(base);
         }
 
         global.addAllStatic(base, prefix);
@@ -78,7 +104,15 @@ public final class MethodResolver
     }
 
     public void attachMethod(Class target, String name, Closure closure) {
-        global.expandoMap.add(new ExpandoMethodClosure(name, target, closure));
+        global.attach(new ExpandoMethodClosure(name, target, closure));
+    }
+
+    /**
+     * Returns the version of this resolver, which is increased whenever
+     * a global or expando method is added.
+     */
+    public long getVersion() {
+        return global.version.get();
     }
 
     public MethodClosure resolveMethod(Class base, String name) {
@@ -134,13 +168,13 @@ public final class MethodResolver
 
     public List<String> listGlobalMethods() {
         List<String> lst = new ArrayList<String>();
-        lst.addAll(global.map.keySet());
+        lst.addAll(global.names());
         return lst;
     }
 
     public List<String> listSystemMethods() {
         List<String> lst = new ArrayList<String>();
-        lst.addAll(builtin.map.keySet());
+        lst.addAll(builtin.names());
         return lst;
     }
 
@@ -162,19 +196,33 @@ public final class MethodResolver
         }
     }
 
+    /**
+     * A registry of methods by name. The map is never modified once
+     * published, new methods are added to a copy which replaces it.
+     */
     static class MethodMap {
-        final Map<String,JavaMethodClosure> map = new HashMap<String,JavaMethodClosure>();
+        private volatile Map<String,JavaMethodClosure> map = Collections.emptyMap();
 
         public MethodClosure get(String name) {
             return map.get(name);
         }
 
+        void copyFrom(MethodMap other) {
+            map = other.map;
+        }
+
+        public Set<String> names() {
+            return map.keySet();
+        }
+
         public void addAll(Class baseClass) {
+            List<Method> lst = new ArrayList<Method>();
             for (Method method : baseClass.getMethods()) {
                 if (!Modifier.isStatic(method.getModifiers())) {
-                    add(method, null);
+                    lst.add(method);
                 }
             }
+            addMethods(lst, null);
         }
 
         public void addAllProtected(Class baseClass) {
@@ -192,11 +240,11 @@ public final class MethodResolver
                         }
                         if (!found) {
                             lst.add(method);
-                            add(method, null);
                         }
                     }
                 }
             }
+            addMethods(lst, null);
         }
 
         private static boolean identical(Method m1, Method m2) {
@@ -208,56 +256,93 @@ public final class MethodResolver
         }
 
         public void addAllStatic(Class baseClass, String prefix) {
+            List<Method> lst = new ArrayList<Method>();
             for (Method method : baseClass.getMethods()) {
                 if (Modifier.isStatic(method.getModifiers())) {
-                    add(method, prefix);
+                    lst.add(method);
                 }
             }
+            addMethods(lst, prefix);
         }
 
         public void add(Method method, String prefix) {
-            Expando meta = method.getAnnotation(Expando.class);
-            if (meta != null) {
-                for (String name : meta.name())
-                    add(method, name, prefix);
-            }
+            addMethods(Collections.singletonList(method), prefix);
+        }
 
-            String name = method.getName();
-            if (!name.startsWith("__")) {
-                if (name.startsWith("_"))
-                    name = name.substring(1);
-                add(method, name, prefix);
+        synchronized void addMethods(List<Method> methods, String prefix) {
+            if (methods.isEmpty())
+                return;
+
+            Map<String,JavaMethodClosure> m = new HashMap<String,JavaMethodClosure>(map);
+            for (Method method : methods) {
+                Expando meta = method.getAnnotation(Expando.class);
+                if (meta != null) {
+                    for (String name : meta.name())
+                        add(m, method, name, prefix);
+                }
+
+                String name = method.getName();
+                if (!name.startsWith("__")) {
+                    if (name.startsWith("_"))
+                        name = name.substring(1);
+                    add(m, method, name, prefix);
+                }
             }
+            map = m;
         }
 
-        private void add(Method method, String name, String prefix) {
+        private static void add(Map<String,JavaMethodClosure> m, Method method, String name, String prefix) {
             if (prefix != null) name = prefix + ":" + name;
-            JavaMethodClosure c = map.get(name);
-            map.put(name, (c==null) ? new SingleMethodClosure(method) : c.addMethod(method));
+            JavaMethodClosure c = m.get(name);
+            m.put(name, (c==null) ? new SingleMethodClosure(method) : c.addMethod(method));
         }
     }
 
     static class ClassMethodMap extends MethodMap {
         @Override
-        public void add(Method method, String prefix) {
-            if (!is_scope(method, ExpandoScope.EXPANDO)) {
-                super.add(method, prefix);
+        void addMethods(List<Method> methods, String prefix) {
+            List<Method> lst = new ArrayList<Method>(methods.size());
+            for (Method method : methods) {
+                if (!is_scope(method, ExpandoScope.EXPANDO)) {
+                    lst.add(method);
+                }
             }
+            super.addMethods(lst, prefix);
         }
     }
 
     static class GlobalMethodMap extends MethodMap {
         final ExpandoMethodMap expandoMap = new ExpandoMethodMap();
+        final AtomicLong version = new AtomicLong();
 
         @Override
-        public void add(Method method, String prefix) {
-            int mods = method.getModifiers();
-            if (Modifier.isPublic(mods) && Modifier.isStatic(mods)) {
-                if (is_scope(method, ExpandoScope.EXPANDO))
-                    expandoMap.add(method);
-                if (is_scope(method, ExpandoScope.GLOBAL))
-                    super.add(method, prefix);
+        void addMethods(List<Method> methods, String prefix) {
+            List<Method> globals = new ArrayList<Method>(methods.size());
+            List<Method> expandos = new ArrayList<Method>();
+            for (Method method : methods) {
+                int mods = method.getModifiers();
+                if (Modifier.isPublic(mods) && Modifier.isStatic(mods)) {
+                    if (is_scope(method, ExpandoScope.EXPANDO))
+                        expandos.add(method);
+                    if (is_scope(method, ExpandoScope.GLOBAL))
+                        globals.add(method);
+                }
             }
+
+            expandoMap.addAll(expandos);
+            super.addMethods(globals, prefix);
+            version.incrementAndGet();
+        }
+
+        synchronized void copyFrom(GlobalMethodMap other) {
+            super.copyFrom(other);
+            expandoMap.copyFrom(other.expandoMap);
+            version.set(other.version.get());
+        }
+
+        public void attach(ExpandoMethodClosure expando) {
+            expandoMap.add(expando);
+            version.incrementAndGet();
         }
 
         public MethodClosure getExpandoMethod(Class baseClass, String name) {
@@ -265,88 +350,183 @@ public final class MethodResolver
         }
     }
 
+    /**
+     * A registry of expando methods by name. The methods of the same name
+     * are ordered from the most specific target class to the most general
+     * one. As with MethodMap, the registry is replaced on updates.
+     *
+     * <p>The method resolved for a receiver class and name is cached until
+     * the registry is updated.</p>
+     */
     static class ExpandoMethodMap {
-        final Map<String, SortedSet<ExpandoMethodClosure>> map
-            = new HashMap<String, SortedSet<ExpandoMethodClosure>>();
-
-        // most concreate class ordered before most general class
-        private static Comparator<ExpandoMethodClosure> order
-            = new Comparator<ExpandoMethodClosure>() {
-                public int compare(ExpandoMethodClosure m1, ExpandoMethodClosure m2) {
-                    Class<?> c1 = m1.getTarget();
-                    Class<?> c2 = m2.getTarget();
-                    if (c1 == c2)
-                        return 0;
-                    return (c1.isAssignableFrom(c2)) ? 1 : -1;
-                }
-            };
+        private volatile Map<String,ExpandoMethodClosure[]> map = Collections.emptyMap();
+        private volatile ConcurrentMap<Class,ConcurrentMap<String,Object>> resolved = newResolvedTable();
 
-        public void add(Method method) {
-            for (String name : method.getAnnotation(Expando.class).name()) {
-                add(method, name);
-            }
+        // marks a name that has no expando method for a receiver class
+        private static final Object NONE = new Object();
+
+        // limits the number of receiver classes cached
+        private static final int MAX_CLASSES = 1000;
+
+        private static ConcurrentMap<Class,ConcurrentMap<String,Object>> newResolvedTable() {
+            return new ConcurrentHashMap<Class,ConcurrentMap<String,Object>>();
+        }
+
+        private void publish(Map<String,ExpandoMethodClosure[]> m) {
+            map = m;
+            resolved = newResolvedTable();
+        }
+
+        synchronized void copyFrom(ExpandoMethodMap other) {
+            publish(other.map);
+        }
 
-            String name = method.getName();
-            if (!name.startsWith("__")) {
-                add(method, method.getName());
+        public synchronized void addAll(List<Method> methods) {
+            if (methods.isEmpty())
+                return;
+
+            Map<String,ExpandoMethodClosure[]> m = new HashMap<String,ExpandoMethodClosure[]>(map);
+            for (Method method : methods) {
+                for (String name : method.getAnnotation(Expando.class).name()) {
+                    add(m, method, name);
+                }
+
+                String name = method.getName();
+                if (!name.startsWith("__")) {
+                    add(m, method, method.getName());
+                }
             }
+            publish(m);
         }
 
-        private void add(Method method, String name) {
+        private static void add(Map<String,ExpandoMethodClosure[]> m, Method method, String name) {
             Class[] params = method.getParameterTypes();
             Class target = (params[0] != ELContext.class) ? params[0] : params[1];
 
-            SortedSet<ExpandoMethodClosure> methods = map.get(name);
-            if (methods == null) {
-                methods = new TreeSet<ExpandoMethodClosure>(order);
-                map.put(name, methods);
-            }
-
-            for (ExpandoMethodClosure expando : methods) {
-                if (target == expando.getTarget()) {
-                    expando.addMethod(method);
-                    return;
+            ExpandoMethodClosure[] methods = m.get(name);
+            if (methods != null) {
+                for (int i = 0; i < methods.length; i++) {
+                    if (target == methods[i].getTarget()) {
+                        methods = methods.clone();
+                        methods[i] = methods[i].addMethod(method);
+                        m.put(name, methods);
+                        return;
+                    }
                 }
             }
 
             Closure delegate = new SingleMethodClosure(method);
-            methods.add(new ExpandoMethodClosure(name, target, delegate));
+            m.put(name, insert(methods, new ExpandoMethodClosure(name, target, delegate)));
         }
 
-        public void add(ExpandoMethodClosure expando) {
+        public synchronized void add(ExpandoMethodClosure expando) {
             String name = expando.getName();
-            SortedSet<ExpandoMethodClosure> methods = map.get(name);
+            Map<String,ExpandoMethodClosure[]> m = new HashMap<String,ExpandoMethodClosure[]>(map);
+            m.put(name, insert(m.get(name), expando));
+            publish(m);
+        }
+
+        /**
+         * Returns a copy of the methods with the given method inserted
+         * before the first method of a more general target class, or
+         * replacing the method of the same target class.
+         */
+        private static ExpandoMethodClosure[] insert(ExpandoMethodClosure[] methods, ExpandoMethodClosure expando) {
             if (methods == null) {
-                methods = new TreeSet<ExpandoMethodClosure>(order);
-                map.put(name, methods);
+                return new ExpandoMethodClosure[] { expando };
+            }
+
+            Class<?> target = expando.getTarget();
+            int pos = methods.length;
+            for (int i = 0; i < methods.length; i++) {
+                Class<?> c = methods[i].getTarget();
+                if (c == target) {
+                    ExpandoMethodClosure[] a = methods.clone();
+                    a[i] = expando;
+                    return a;
+                }
+                if (pos == methods.length && c.isAssignableFrom(target)) {
+                    pos = i;
+                }
             }
-            methods.add(expando);
+
+            ExpandoMethodClosure[] a = new ExpandoMethodClosure[methods.length + 1];
+            System.arraycopy(methods, 0, a, 0, pos);
+            a[pos] = expando;
+            System.arraycopy(methods, pos, a, pos + 1, methods.length - pos);
+            return a;
         }
 
         public MethodClosure get(Class cls, String name) {
-            SortedSet<ExpandoMethodClosure> methods = map.get(name);
-            if (methods != null) {
-                for (ExpandoMethodClosure m : methods) {
-                    if (m.getTarget().isAssignableFrom(cls)) {
-                        return m;
+            // the resolved table must be read before the registry
+            ConcurrentMap<Class,ConcurrentMap<String,Object>> table = resolved;
+            ConcurrentMap<String,Object> names = table.get(cls);
+            if (names != null) {
+                Object m = names.get(name);
+                if (m != null) {
+                    return (m == NONE) ? null : (MethodClosure)m;
+                }
+            }
+
+            ExpandoMethodClosure[] methods = map.get(name);
+            if (methods == null) {
+                return null;
+            }
+
+            if (names == null) {
+                if (table.size() >= MAX_CLASSES)
+                    table.clear();
+                names = new ConcurrentHashMap<String,Object>();
+                ConcurrentMap<String,Object> prev = table.putIfAbsent(cls, names);
+                if (prev != null) names = prev;
+            }
+
+            MethodClosure m = select(methods, cls);
+            names.put(name, (m == null) ? NONE : m);
+            return m;
+        }
+
+        /**
+         * Select the most specific method applicable to the receiver class.
+         * A method of a class target is preferred over a method of an
+         * unrelated interface target.
+         */
+        private static MethodClosure select(ExpandoMethodClosure[] methods, Class cls) {
+            ExpandoMethodClosure best = null;
+            for (ExpandoMethodClosure m : methods) {
+                if (m.getTarget().isAssignableFrom(cls)) {
+                    if (best == null || isMoreSpecific(m.getTarget(), best.getTarget())) {
+                        best = m;
                     }
                 }
             }
-            return null;
+            return best;
+        }
+
+        private static boolean isMoreSpecific(Class<?> c1, Class<?> c2) {
+            if (c2.isAssignableFrom(c1)) {
+                return true;
+            } else if (c1.isAssignableFrom(c2)) {
+                return false;
+            } else {
+                return !c1.isInterface() && c2.isInterface();
+            }
         }
     }
 
-    private GlobalMethodMap global = new GlobalMethodMap();
-    private Set<Class> imported = new HashSet<Class>();
+    private final GlobalMethodMap global = new GlobalMethodMap();
+    private final Set<Class> imported = new HashSet<Class>();
 
-    private static GlobalMethodMap builtin = new GlobalMethodMap();
+    private static final GlobalMethodMap builtin = new GlobalMethodMap();
     static {
         builtin.addAllStatic(elite.lang.Builtin.class, null);
     }
 
-    private SimpleCache<Class,MethodMap> cache = SimpleCache.make(200);
-    private SimpleCache<Class,MethodMap> pcache = SimpleCache.make(200);
-    private SimpleCache<Class,MethodMap> scache = SimpleCache.make(200);
+    // the Java methods of a class don't depend on the resolver state,
+    // so they are cached once for all resolvers
+    private static final SimpleCache<Class,MethodMap> cache = SimpleCache.make("methods", 200);
+    private static final SimpleCache<Class,MethodMap> pcache = SimpleCache.make("methods.protected", 200);
+    private static final SimpleCache<Class,MethodMap> scache = SimpleCache.make("methods.static", 200);
 
     private MethodClosure getMethodClosure(Class baseClass, String name) {
         MethodClosure c = global.getExpandoMethod(baseClass, name);
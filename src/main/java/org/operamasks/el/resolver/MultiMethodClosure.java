@@ -47,6 +47,11 @@ class MultiMethodClosure extends JavaMethodClosure
         this.methods = new Method[0];
     }
 
+    private MultiMethodClosure(String name, Method[] methods) {
+        this.name = name;
+        this.methods = methods;
+    }
+
     public String getName() {
         return name;
     }
@@ -61,9 +66,8 @@ class MultiMethodClosure extends JavaMethodClosure
         Method[] newlist = new Method[methods.length+1];
         System.arraycopy(methods, 0, newlist, 0, methods.length);
         newlist[methods.length] = method;
-        methods = newlist;
         method.setAccessible(true);
-        return this;
+        return new MultiMethodClosure(name, newlist);
     }
 
     public int arity(ELContext elctx) {
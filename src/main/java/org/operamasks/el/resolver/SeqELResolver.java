@@ -32,9 +32,11 @@ import org.operamasks.el.eval.seq.Cons;
 import org.operamasks.el.eval.seq.DelaySeq;
 import org.operamasks.el.eval.seq.EmptySeq;
 import org.operamasks.el.eval.TypeCoercion;
+import org.operamasks.el.eval.ArrayAccess;
 
 @SuppressWarnings("unchecked")
 public class SeqELResolver extends ELResolver
+    implements TypedELResolver
 {
     private boolean isReadOnly;
 
@@ -160,6 +162,10 @@ public class SeqELResolver extends ELResolver
         return false;
     }
 
+    public boolean isResolvable(Class<?> baseClass) {
+        return baseClass != null && Seq.class.isAssignableFrom(baseClass);
+    }
+
     public Iterator<FeatureDescriptor> getFeatureDescriptors(ELContext context, Object base) {
         return null;
     }
@@ -484,7 +490,7 @@ public class SeqELResolver extends ELResolver
         // step to end
         int xl = Array.getLength(value), xi = 0;
         while (inf || end >= 0) {
-            Object x = Array.get(value, xi);
+            Object x = ArrayAccess.get(value, xi);
             if (base.isEmpty()) {
                 base.add(x);
             } else {
@@ -537,7 +543,7 @@ public class SeqELResolver extends ELResolver
 
         // step to end
         while (end >= 0) {
-            Object x = Array.get(value, xi);
+            Object x = ArrayAccess.get(value, xi);
             if (base.isEmpty()) {
                 base.add(x);
             } else {
@@ -54,10 +54,9 @@ class SingleMethodClosure extends JavaMethodClosure
         if (method.equals(this.method)) {
             return this;
         } else {
-            JavaMethodClosure closure = new MultiMethodClosure(getName());
-            closure.addMethod(this.method);
-            closure.addMethod(method);
-            return closure;
+            return new MultiMethodClosure(getName())
+                .addMethod(this.method)
+                .addMethod(method);
         }
     }
 
@@ -26,6 +26,7 @@ import javax.el.PropertyNotWritableException;
 import elite.lang.Range;
 
 public class StringELResolver extends ELResolver
+    implements TypedELResolver
 {
     public Class<?> getType(ELContext context, Object base, Object property) {
         if ((base instanceof CharSequence) && (property != null)) {
@@ -92,6 +93,10 @@ public class StringELResolver extends ELResolver
         }
     }
 
+    public boolean isResolvable(Class<?> baseClass) {
+        return baseClass != null && CharSequence.class.isAssignableFrom(baseClass);
+    }
+
     public Iterator<FeatureDescriptor> getFeatureDescriptors(ELContext context, Object base) {
         return null;
     }
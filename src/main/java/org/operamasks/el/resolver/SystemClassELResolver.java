@@ -33,6 +33,7 @@ import javax.el.ELContext;
 import javax.el.PropertyNotWritableException;
 
 public class SystemClassELResolver extends ELResolver
+    implements TypedELResolver
 {
     private Map<String,JavaPackage> packages;
     private static List<String> systemPackages;
@@ -104,12 +105,10 @@ public class SystemClassELResolver extends ELResolver
             return pkg;
         }
 
-        try {
-            Class c = ClassResolver.getInstance(context).resolveClass(clsname);
+        Class c = ClassResolver.getInstance(context).findClass(clsname);
+        if (c != null) {
             context.setPropertyResolved(true);
             return c;
-        } catch (ClassNotFoundException ex) {
-            // fallthrough
         }
 
         return null;
@@ -136,12 +135,9 @@ public class SystemClassELResolver extends ELResolver
             return JavaPackage.class;
         }
 
-        try {
-            ClassResolver.getInstance(context).resolveClass(clsname);
+        if (ClassResolver.getInstance(context).findClass(clsname) != null) {
             context.setPropertyResolved(true);
             return Class.class;
-        } catch (ClassNotFoundException ex) {
-            // fallthrough
         }
 
         return null;
@@ -161,6 +157,11 @@ public class SystemClassELResolver extends ELResolver
         return false;
     }
 
+    public boolean isResolvable(Class<?> baseClass) {
+        return baseClass == null || baseClass == Class.class
+            || JavaPackage.class.isAssignableFrom(baseClass);
+    }
+
     public Iterator<FeatureDescriptor> getFeatureDescriptors(ELContext context, Object base) {
         return null;
     }
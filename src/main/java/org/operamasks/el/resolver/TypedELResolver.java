@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.resolver;
+
+/**
+ * Implemented by an ELResolver that resolves properties only for base
+ * objects of some types, so a {@link DispatchELResolver} can skip it for
+ * base objects of other types. A subclass that resolves properties for
+ * more types must override this method accordingly.
+ */
+public interface TypedELResolver
+{
+    /**
+     * Returns true if the resolver may resolve properties of a base object
+     * of the given class, or of a null base object if the class is null.
+     */
+    boolean isResolvable(Class<?> baseClass);
+}
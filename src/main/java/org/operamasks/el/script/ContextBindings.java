@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.script;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.script.Bindings;
+
+/**
+ * Thread safe bindings that can be read without locking.
+ *
+ * <p>The bindings maintain a version number that is changed whenever a
+ * new name is added, so the names known to be unbound can be cached until
+ * the version is changed.</p>
+ */
+class ContextBindings extends AbstractMap<String,Object>
+    implements Bindings
+{
+    private final ConcurrentHashMap<String,Object> map =
+        new ConcurrentHashMap<String,Object>();
+    private final AtomicInteger version = new AtomicInteger();
+
+    // used to store null values in the concurrent map
+    private static final Object NULL = new Object();
+
+    ContextBindings() {
+    }
+
+    int getVersion() {
+        return version.get();
+    }
+
+    public Object put(String name, Object value) {
+        checkKey(name);
+        Object old = map.put(name, value == null ? NULL : value);
+        if (old == null) {
+            version.incrementAndGet();
+        }
+        return unmask(old);
+    }
+
+    public void putAll(Map<? extends String, ? extends Object> toMerge) {
+        for (Map.Entry<? extends String, ? extends Object> e : toMerge.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    public boolean containsKey(Object key) {
+        checkKey(key);
+        return map.containsKey(key);
+    }
+
+    public Object get(Object key) {
+        checkKey(key);
+        return unmask(map.get(key));
+    }
+
+    public Object remove(Object key) {
+        checkKey(key);
+        return unmask(map.remove(key));
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public Set<Map.Entry<String,Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String,Object>>() {
+            public int size() {
+                return map.size();
+            }
+
+            public Iterator<Map.Entry<String,Object>> iterator() {
+                final Iterator<Map.Entry<String,Object>> it = map.entrySet().iterator();
+                return new Iterator<Map.Entry<String,Object>>() {
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+                    public Map.Entry<String,Object> next() {
+                        Map.Entry<String,Object> e = it.next();
+                        return new SimpleImmutableEntry<String,Object>(e.getKey(), unmask(e.getValue()));
+                    }
+                    public void remove() {
+                        it.remove();
+                    }
+                };
+            }
+        };
+    }
+
+    private static Object unmask(Object value) {
+        return value == NULL ? null : value;
+    }
+
+    private static void checkKey(Object key) {
+        if (key == null) {
+            throw new NullPointerException("key can not be null");
+        }
+        if (!(key instanceof String)) {
+            throw new ClassCastException("key should be a String");
+        }
+        if (((String)key).length() == 0) {
+            throw new IllegalArgumentException("key can not be empty");
+        }
+    }
+}
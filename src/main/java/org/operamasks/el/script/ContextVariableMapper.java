@@ -23,8 +23,13 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Set;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.el.ValueExpression;
 import javax.el.ELContext;
+import javax.script.Bindings;
 import javax.script.ScriptContext;
 
 import org.operamasks.el.eval.VariableMapperImpl;
@@ -37,6 +42,9 @@ class ContextVariableMapper extends VariableMapperImpl
 {
     final ScriptContext context;
 
+    // the names known to be unbound in the script context
+    private volatile Misses misses;
+
     ContextVariableMapper(ScriptContext context) {
         this.context = context;
 
@@ -51,6 +59,19 @@ class ContextVariableMapper extends VariableMapperImpl
             return expression;
         }
 
+        // The names of builtins and methods are looked up repeatedly and
+        // never found in the script context, remember them without locking.
+        Misses m = misses;
+        if (m != null && m.names.contains(name) && m.isValid(context, name)) {
+            return null;
+        }
+
+        // take the snapshot before probing the script context, so a name
+        // added by another thread meanwhile invalidates the snapshot
+        if (m == null || !m.isValid(context, null)) {
+            m = new Misses(context);
+        }
+
         synchronized (context) {
             int scope = context.getAttributesScope(name);
             if (scope != -1) {
@@ -63,11 +84,57 @@ class ContextVariableMapper extends VariableMapperImpl
                     return expression;
                 }
             } else {
+                m.names.add(name);
+                misses = m;
                 return null;
             }
         }
     }
 
+    /**
+     * The names unbound in the script context, valid as long as the
+     * bindings of the script context are not replaced and no name is
+     * added to them. Bindings that don't keep a version are checked
+     * for the name directly.
+     */
+    private static final class Misses {
+        final Bindings[] scopes;
+        final int[] versions;
+        final Set<String> names =
+            Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
+        Misses(ScriptContext context) {
+            List<Integer> ids = context.getScopes();
+            scopes = new Bindings[ids.size()];
+            versions = new int[ids.size()];
+            for (int i = 0; i < scopes.length; i++) {
+                Bindings b = context.getBindings(ids.get(i));
+                scopes[i] = b;
+                if (b instanceof ContextBindings)
+                    versions[i] = ((ContextBindings)b).getVersion();
+            }
+        }
+
+        boolean isValid(ScriptContext context, String name) {
+            List<Integer> ids = context.getScopes();
+            if (ids.size() != scopes.length)
+                return false;
+            for (int i = 0; i < scopes.length; i++) {
+                Bindings b = context.getBindings(ids.get(i));
+                if (b != scopes[i])
+                    return false;
+                if (b instanceof ContextBindings) {
+                    if (((ContextBindings)b).getVersion() != versions[i])
+                        return false;
+                } else if (b != null && name != null) {
+                    if (b.containsKey(name))
+                        return false;
+                }
+            }
+            return true;
+        }
+    }
+
     public ValueExpression setVariable(final String name, ValueExpression expression) {
         ValueExpression retval = super.setVariable(name, expression);
 
@@ -106,6 +173,15 @@ class ContextVariableMapper extends VariableMapperImpl
     }
 
     protected Object getContextValue(String name) {
+        // script globals live in the engine scope, access them without locking
+        Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (engine instanceof ContextBindings) {
+            Object value = engine.get(name);
+            if (value != null || engine.containsKey(name)) {
+                return value;
+            }
+        }
+
         synchronized (context) {
             int scope = context.getAttributesScope(name);
             if (scope != -1) {
@@ -116,6 +192,12 @@ class ContextVariableMapper extends VariableMapperImpl
     }
 
     protected void setContextValue(String name, Object value) {
+        Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (engine instanceof ContextBindings && engine.containsKey(name)) {
+            engine.put(name, value);
+            return;
+        }
+
         synchronized (context) {
             int scope = context.getAttributesScope(name);
             if (scope == -1)
@@ -17,14 +17,10 @@
 
 package org.operamasks.el.script;
 
+import java.io.File;
 import java.io.Reader;
 import java.io.IOException;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
-import java.security.AccessControlContext;
-import java.security.AccessController;
-import java.security.PrivilegedExceptionAction;
+import java.util.List;
 import javax.el.ELContext;
 import javax.el.ELException;
 import javax.el.ValueExpression;
@@ -35,7 +31,6 @@ import javax.script.ScriptContext;
 import javax.script.Bindings;
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngine;
-import javax.script.SimpleBindings;
 import javax.script.Invocable;
 import javax.script.Compilable;
 import javax.script.CompiledScript;
@@ -48,6 +43,7 @@ import org.operamasks.el.eval.ELUtils;
 import org.operamasks.el.eval.closure.ClosureObject;
 import org.operamasks.el.parser.Parser;
 import org.operamasks.el.parser.ParseException;
+import org.operamasks.el.parser.LibraryLoader;
 import elite.lang.Closure;
 
 class ELiteScriptEngine extends AbstractScriptEngine
@@ -102,6 +98,40 @@ class ELiteScriptEngine extends AbstractScriptEngine
         }
     }
 
+    /**
+     * Load a library made of several script files, parsing the files that
+     * don't define syntax rules concurrently. The syntax rules defined by
+     * the library are visible to the scripts evaluated afterwards.
+     */
+    Object load(List<File> files, String encoding, ScriptContext ctx)
+        throws ScriptException, IOException
+    {
+        try {
+            LibraryLoader loader = new LibraryLoader();
+            loader.setEncoding(encoding);
+            loader.setSyntaxRules(this.parser);
+            ELProgram program = loader.load(files);
+            if (loader.getSyntaxRules() != null)
+                this.parser = loader.getSyntaxRules();
+            return program.execute(getELContext(ctx));
+        } catch (ParseException ex) {
+            ScriptException ex2 = new ScriptException(ex.getMessage(),
+                                                      ex.getFileName(),
+                                                      ex.getLineNumber(),
+                                                      ex.getColumnNumber());
+            ex2.initCause(ex);
+            ex2.setStackTrace(ex.getStackTrace());
+            throw ex2;
+        } catch (EvaluationException ex) {
+            ScriptException ex2 = new ScriptException(ex.getMessage());
+            ex2.initCause(ex.getCause());
+            ex2.setStackTrace(ex.getStackTrace());
+            throw ex2;
+        } catch (ELException ex) {
+            throw new ScriptException(ex);
+        }
+    }
+
     public Object eval(Reader reader, ScriptContext context)
         throws ScriptException
     {
@@ -114,7 +144,7 @@ class ELiteScriptEngine extends AbstractScriptEngine
     }
 
     public Bindings createBindings() {
-        return new SimpleBindings();
+        return new ContextBindings();
     }
 
     public ScriptEngineFactory getFactory() {
@@ -179,9 +209,7 @@ class ELiteScriptEngine extends AbstractScriptEngine
         if (iface == null || !iface.isInterface())
             throw new IllegalArgumentException("interface expected");
 
-        return iface.cast(Proxy.newProxyInstance(
-            iface.getClassLoader(), new Class[]{iface},
-            new InterfaceImplementorInvocationHandler(null)));
+        return InterfaceAdapter.create(this, null, iface);
     }
 
     public <T> T getInterface(Object thiz, Class<T> iface) {
@@ -190,9 +218,7 @@ class ELiteScriptEngine extends AbstractScriptEngine
         if (iface == null || !iface.isInterface())
             throw new IllegalArgumentException("interface expected");
 
-        return iface.cast(Proxy.newProxyInstance(
-            iface.getClassLoader(), new Class[]{iface},
-            new InterfaceImplementorInvocationHandler(thiz)));
+        return InterfaceAdapter.create(this, thiz, iface);
     }
 
     // Compilable implementation
@@ -261,32 +287,4 @@ class ELiteScriptEngine extends AbstractScriptEngine
         reader.close();
         return buf.toString();
     }
-
-    private final class InterfaceImplementorInvocationHandler
-        implements InvocationHandler
-    {
-        private Object thiz;
-        private AccessControlContext acc;
-
-        InterfaceImplementorInvocationHandler(Object thiz) {
-            this.thiz = thiz;
-            this.acc = AccessController.getContext();
-        }
-
-        public Object invoke(Object proxy, Method method, Object[] args)
-            throws Throwable
-        {
-            final String name = method.getName();
-            final Object[] a = args == null ? new Object[0] : args;
-            return AccessController.doPrivileged(new PrivilegedExceptionAction<Object>() {
-                public Object run() throws Exception {
-                    if (thiz == null) {
-                        return invokeFunction(name, a);
-                    } else {
-                        return invokeMethod(thiz, name, a);
-                    }
-                }
-            }, acc);
-        }
-    }
 }
@@ -17,12 +17,15 @@
 
 package org.operamasks.el.script;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collections;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptContext;
+import javax.script.ScriptException;
 import javax.el.ELContext;
 
 public class ELiteScriptEngineFactory implements ScriptEngineFactory
@@ -84,6 +87,19 @@ public class ELiteScriptEngineFactory implements ScriptEngineFactory
         return new ELiteScriptEngine(this);
     }
 
+    /**
+     * Load a library made of several script files into an ELite script
+     * engine. The files are linked as if each one required the next, and
+     * the files that don't define syntax rules are parsed concurrently.
+     */
+    public static Object loadLibrary(ScriptEngine engine, List<File> files, String encoding)
+        throws ScriptException, IOException
+    {
+        if (!(engine instanceof ELiteScriptEngine))
+            throw new IllegalArgumentException("not an ELite script engine");
+        return ((ELiteScriptEngine)engine).load(files, encoding, engine.getContext());
+    }
+
     // Callback method used to initialize context.
     protected void contextCreated(ELContext elctx, ScriptContext sctx) { }
 
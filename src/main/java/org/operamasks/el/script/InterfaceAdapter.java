@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.script;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import javax.el.ELContext;
+import javax.el.ELException;
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
+import javax.el.MethodNotFoundException;
+import javax.script.ScriptException;
+
+import elite.lang.Closure;
+import org.operamasks.el.eval.EvaluationException;
+import org.operamasks.el.eval.VariableMapperImpl;
+import org.operamasks.el.eval.closure.ClosureObject;
+import org.operamasks.el.eval.closure.LiteralClosure;
+import static org.operamasks.el.eval.ELUtils.*;
+
+/**
+ * Implements a Java interface with script functions or methods of a
+ * script object.
+ *
+ * <p>The interface methods are mapped to bindings when the adapter is
+ * created, so a call only wraps the arguments and invokes the script
+ * function without going through the engine. Calls are evaluated in the
+ * engine's current context. The function found in the context is kept
+ * until the variables of the context are changed, so a redefined function
+ * takes effect immediately.</p>
+ */
+final class InterfaceAdapter implements InvocationHandler
+{
+    private final ELiteScriptEngine engine;
+    private final Map<Method,Binding> bindings;
+
+    private InterfaceAdapter(ELiteScriptEngine engine, Object thiz, Class<?> iface) {
+        this.engine = engine;
+        this.bindings = new HashMap<Method,Binding>();
+        for (Method method : iface.getMethods()) {
+            if (isObjectMethod(method))
+                continue;
+            Binding b = (thiz == null) ? new FunctionBinding(method.getName())
+                                       : new MethodBinding(thiz, method.getName());
+            bindings.put(method, b);
+        }
+    }
+
+    static <T> T create(ELiteScriptEngine engine, Object thiz, Class<T> iface) {
+        return iface.cast(Proxy.newProxyInstance(
+            iface.getClassLoader(), new Class<?>[]{iface},
+            new InterfaceAdapter(engine, thiz, iface)));
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable
+    {
+        Binding b = bindings.get(method);
+        if (b == null) {
+            return invokeObjectMethod(proxy, method, args);
+        }
+
+        Closure[] callArgs;
+        if (args == null || args.length == 0) {
+            callArgs = NO_PARAMS;
+        } else {
+            callArgs = new Closure[args.length];
+            for (int i = 0; i < args.length; i++) {
+                callArgs[i] = new LiteralClosure(args[i]);
+            }
+        }
+
+        try {
+            ELContext elctx = engine.getELContext(engine.getContext());
+            return b.invoke(elctx, callArgs);
+        } catch (EvaluationException ex) {
+            ScriptException ex2 = new ScriptException(ex.getMessage());
+            ex2.initCause(ex.getCause());
+            ex2.setStackTrace(ex.getStackTrace());
+            throw ex2;
+        } catch (ELException ex) {
+            throw new ScriptException(ex);
+        }
+    }
+
+    private static boolean isObjectMethod(Method method) {
+        try {
+            Object.class.getMethod(method.getName(), method.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    private static Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("equals")) {
+            return proxy == args[0];
+        } else if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (name.equals("toString")) {
+            return proxy.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+        } else {
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+    private static abstract class Binding {
+        final String name;
+
+        Binding(String name) {
+            this.name = name;
+        }
+
+        abstract Object invoke(ELContext elctx, Closure[] args)
+            throws NoSuchMethodException;
+    }
+
+    /**
+     * Binds an interface method to a script function.
+     */
+    private static final class FunctionBinding extends Binding {
+        private volatile Resolved resolved;
+
+        FunctionBinding(String name) {
+            super(name);
+        }
+
+        Object invoke(ELContext elctx, Closure[] args)
+            throws NoSuchMethodException
+        {
+            return resolve(elctx.getVariableMapper()).invoke(elctx, args);
+        }
+
+        private Closure resolve(VariableMapper vm)
+            throws NoSuchMethodException
+        {
+            Resolved r = resolved;
+            if (r != null && r.vm == vm && r.version == r.vm.getVersion()) {
+                return r.closure;
+            }
+
+            // take the version first, so a change made meanwhile is noticed
+            int version = (vm instanceof VariableMapperImpl)
+                ? ((VariableMapperImpl)vm).getVersion() : 0;
+
+            ValueExpression exp = vm.resolveVariable(name);
+            if (!(exp instanceof Closure)) {
+                throw new NoSuchMethodException(name);
+            }
+
+            // only the variables held by the mapper itself are versioned
+            if (vm instanceof VariableMapperImpl) {
+                VariableMapperImpl vmi = (VariableMapperImpl)vm;
+                if (vmi.getVariableMap().get(name) == exp) {
+                    resolved = new Resolved(vmi, version, (Closure)exp);
+                }
+            }
+            return (Closure)exp;
+        }
+    }
+
+    private static final class Resolved {
+        final VariableMapperImpl vm;
+        final int version;
+        final Closure closure;
+
+        Resolved(VariableMapperImpl vm, int version, Closure closure) {
+            this.vm = vm;
+            this.version = version;
+            this.closure = closure;
+        }
+    }
+
+    /**
+     * Binds an interface method to a method of a script object.
+     */
+    private static final class MethodBinding extends Binding {
+        private final Object thiz;
+
+        MethodBinding(Object thiz, String name) {
+            super(name);
+            this.thiz = thiz;
+        }
+
+        Object invoke(ELContext elctx, Closure[] args)
+            throws NoSuchMethodException
+        {
+            if (!(thiz instanceof ClosureObject)) {
+                throw new NoSuchMethodException("no such method: " + name);
+            }
+
+            Object result;
+            try {
+                result = ((ClosureObject)thiz).invoke(elctx, name, args);
+            } catch (MethodNotFoundException ex) {
+                throw new NoSuchMethodException("no such method: " + name);
+            }
+
+            if (result == NO_RESULT) {
+                throw new NoSuchMethodException("no such method: " + name);
+            } else {
+                return result;
+            }
+        }
+    }
+}
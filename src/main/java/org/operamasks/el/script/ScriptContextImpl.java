@@ -27,6 +27,10 @@ import org.operamasks.el.eval.PropertyResolvable;
 public class ScriptContextImpl extends SimpleScriptContext
     implements ScriptContext, PropertyResolvable
 {
+    public ScriptContextImpl() {
+        engineScope = new ContextBindings();
+    }
+
     public Bindings getEngineScope() {
         return getBindings(ENGINE_SCOPE);
     }
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2006-2011 Daniel Yuan.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see http://www.gnu.org/licenses.
+ */
+
+package org.operamasks.el.script;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.el.ELContext;
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import static javax.script.ScriptContext.ENGINE_SCOPE;
+import static javax.script.ScriptContext.GLOBAL_SCOPE;
+
+import org.operamasks.el.eval.VariableMapperImpl;
+import org.operamasks.el.eval.closure.LiteralClosure;
+import org.operamasks.el.resolver.ClassResolver;
+import org.operamasks.el.resolver.MethodResolver;
+import org.operamasks.util.SimpleCache;
+
+/**
+ * A bounded pool of script engines for executing scripts concurrently.
+ *
+ * <p>Scripts compiled by the pool are cached by source and shared by all
+ * threads. Each evaluation borrows an engine from the pool, which keeps
+ * its ELContext and the program linkage between requests. The variables
+ * defined by a request are discarded when the engine is returned to the
+ * pool, the variables of the engine get back their initial values, and
+ * the method and class resolvers are forked again from the
+ * engine's initial state if a request imported modules or packages or
+ * attached methods.</p>
+ *
+ * <p>The request variables are put into the engine scope of the pooled
+ * engine. A script evaluated with a ScriptContext reads from and writes
+ * to the reader and writers of that context and sees its global scope.</p>
+ */
+public class ScriptEnginePool
+{
+    private final ELiteScriptEngineFactory factory;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final BlockingQueue<Entry> idle;
+    private volatile long maxWait = -1;
+
+    private final SimpleCache<String,PooledScript> scripts =
+        SimpleCache.make("script", 1000);
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    public ScriptEnginePool(int maxSize) {
+        this(new ELiteScriptEngineFactory(), maxSize);
+    }
+
+    public ScriptEnginePool(ELiteScriptEngineFactory factory, int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize: " + maxSize);
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.idle = new LinkedBlockingQueue<Entry>();
+    }
+
+    /**
+     * Set the maximum time in milliseconds to wait for an engine, a
+     * negative value waits forever.
+     */
+    public void setMaxWait(long millis) {
+        this.maxWait = millis;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getBorrowCount() {
+        return borrowed.get();
+    }
+
+    public long getWaitCount() {
+        return waited.get();
+    }
+
+    public long getDiscardCount() {
+        return discarded.get();
+    }
+
+    public SimpleCache<String,PooledScript> getScriptCache() {
+        return scripts;
+    }
+
+    /**
+     * Compile a script. The compiled scripts are cached and can be
+     * evaluated concurrently, each evaluation uses an engine from this pool.
+     */
+    public CompiledScript compile(String script) throws ScriptException {
+        PooledScript compiled = scripts.get(script);
+        if (compiled == null) {
+            // compile with a fresh engine so scripts don't see syntax
+            // rules defined by each other
+            ELiteScriptEngine engine = new ELiteScriptEngine(factory);
+            compiled = new PooledScript(engine, (ELiteCompiledScript)engine.compile(script));
+            scripts.put(script, compiled);
+        }
+        return compiled;
+    }
+
+    public Object eval(String script, Bindings bindings) throws ScriptException {
+        return ((PooledScript)compile(script)).eval(bindings);
+    }
+
+    /**
+     * A compiled script that is evaluated by an engine borrowed from the pool.
+     */
+    public class PooledScript extends CompiledScript {
+        private final ScriptEngine engine;
+        private final ELiteCompiledScript script;
+
+        PooledScript(ScriptEngine engine, ELiteCompiledScript script) {
+            this.engine = engine;
+            this.script = script;
+        }
+
+        public Object eval() throws ScriptException {
+            return eval((Bindings)null);
+        }
+
+        public Object eval(Bindings bindings) throws ScriptException {
+            Entry entry = borrow();
+            try {
+                if (bindings != null)
+                    entry.engineScope.putAll(bindings);
+                return script.eval(entry.context);
+            } finally {
+                release(entry);
+            }
+        }
+
+        public Object eval(ScriptContext context) throws ScriptException {
+            Entry entry = borrow();
+            try {
+                entry.attach(context);
+                return script.eval(entry.context);
+            } finally {
+                release(entry);
+            }
+        }
+
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+    }
+
+    /**
+     * A pooled engine with its initial state.
+     */
+    private static class Entry {
+        final ScriptContext context;
+        final ELContext elctx;
+        final Bindings engineScope;
+        final Bindings globalScope;
+        final Map<String,ValueExpression> variables;
+        final Map<String,ValueExpression> initialVariables;
+        final Map<String,Object> initialBindings;
+
+        // the values of the assignable initial variables, such as the
+        // stream variables
+        final Map<ValueExpression,Object> initialValues =
+            new IdentityHashMap<ValueExpression,Object>();
+
+        // the initial resolvers, never used directly by requests
+        final MethodResolver methods;
+        final ClassResolver classes;
+
+        // the resolvers used by requests and their versions when forked
+        MethodResolver forkedMethods;
+        ClassResolver forkedClasses;
+        long methodsVersion;
+        int classesVersion;
+
+        Entry(ELiteScriptEngine engine) {
+            context = engine.getContext();
+            elctx = engine.getELContext(context);
+            engineScope = context.getBindings(ENGINE_SCOPE);
+            globalScope = context.getBindings(GLOBAL_SCOPE);
+            variables = ((VariableMapperImpl)elctx.getVariableMapper()).getVariableMap();
+            initialVariables = new LinkedHashMap<String,ValueExpression>(variables);
+            initialBindings = new HashMap<String,Object>(engineScope);
+            for (ValueExpression var : initialVariables.values()) {
+                if (var instanceof LiteralClosure && !var.isReadOnly(elctx)) {
+                    initialValues.put(var, var.getValue(elctx));
+                }
+            }
+            methods = MethodResolver.getInstance(elctx);
+            classes = ClassResolver.getInstance(elctx);
+            fork();
+        }
+
+        private void fork() {
+            forkedMethods = methods.fork();
+            forkedClasses = classes.fork();
+            methodsVersion = forkedMethods.getVersion();
+            classesVersion = forkedClasses.getVersion();
+            elctx.putContext(MethodResolver.class, forkedMethods);
+            elctx.putContext(ClassResolver.class, forkedClasses);
+        }
+
+        private boolean isForkChanged() {
+            return elctx.getContext(MethodResolver.class) != forkedMethods
+                || elctx.getContext(ClassResolver.class) != forkedClasses
+                || forkedMethods.getVersion() != methodsVersion
+                || forkedClasses.getVersion() != classesVersion;
+        }
+
+        /**
+         * Evaluate the request with the bindings and I/O of the caller's
+         * script context.
+         */
+        void attach(ScriptContext caller) {
+            Bindings bindings = caller.getBindings(ENGINE_SCOPE);
+            if (bindings != null)
+                engineScope.putAll(bindings);
+            context.setBindings(caller.getBindings(GLOBAL_SCOPE), GLOBAL_SCOPE);
+            setStreams(caller.getReader(), caller.getWriter(), caller.getErrorWriter());
+        }
+
+        // the stream variables update the script context as well
+        private void setStreams(Reader in, Writer out, Writer err) {
+            VariableMapper vm = elctx.getVariableMapper();
+            if (in != null)
+                vm.resolveVariable("stdin").setValue(elctx, in);
+            if (out != null)
+                vm.resolveVariable("stdout").setValue(elctx, out);
+            if (err != null)
+                vm.resolveVariable("stderr").setValue(elctx, err);
+        }
+
+        /**
+         * Discard the state changed by a request. Returns false if the
+         * engine can not be reset and should not be reused.
+         */
+        boolean reset() {
+            if (context.getBindings(ENGINE_SCOPE) != engineScope) {
+                return false;
+            }
+
+            synchronized (context) {
+                variables.clear();
+                variables.putAll(initialVariables);
+                engineScope.clear();
+                engineScope.putAll(initialBindings);
+                context.setBindings(globalScope, GLOBAL_SCOPE);
+            }
+
+            // a request may assign to an initial variable in place
+            for (Map.Entry<ValueExpression,Object> e : initialValues.entrySet()) {
+                ValueExpression var = e.getKey();
+                if (var.getValue(elctx) != e.getValue()) {
+                    var.setValue(elctx, e.getValue());
+                }
+            }
+
+            if (isForkChanged()) {
+                fork();
+            }
+            return true;
+        }
+    }
+
+    private Entry borrow() throws ScriptException {
+        try {
+            if (!permits.tryAcquire()) {
+                waited.incrementAndGet();
+                long timeout = maxWait;
+                if (timeout < 0) {
+                    permits.acquire();
+                } else if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new ScriptException("Timeout waiting for a script engine");
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ScriptException(ex);
+        }
+
+        borrowed.incrementAndGet();
+        Entry entry = idle.poll();
+        if (entry == null) {
+            try {
+                entry = new Entry(new ELiteScriptEngine(factory));
+                created.incrementAndGet();
+            } catch (RuntimeException ex) {
+                permits.release();
+                throw ex;
+            }
+        }
+        return entry;
+    }
+
+    private void release(Entry entry) {
+        try {
+            if (entry.reset()) {
+                idle.offer(entry);
+            } else {
+                discarded.incrementAndGet();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+}
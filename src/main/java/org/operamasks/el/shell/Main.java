@@ -17,12 +17,15 @@
 
 package org.operamasks.el.shell;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.el.ELContext;
@@ -35,6 +38,7 @@ import org.operamasks.el.shell.command.CommandProvider;
 import org.operamasks.el.parser.IncompleteException;
 import org.operamasks.el.parser.Position;
 import org.operamasks.el.eval.StackTrace;
+import org.operamasks.el.script.ELiteScriptEngineFactory;
 import static org.operamasks.el.resources.Resources.*;
 import elite.lang.Builtin;
 
@@ -48,6 +52,7 @@ public class Main
     private ShellContext shellContext;
     private String script;
     private String filename;
+    private List<File> libraries = new ArrayList<File>();
 
     public Main() {
         this.shellContext = new ShellContext();
@@ -75,6 +80,13 @@ public class Main
             shellContext.setEngine(engine);
             int status = 0;
 
+            if (!libraries.isEmpty()) {
+                status = load_library(engine, libraries);
+                if (status != 0) {
+                    return status;
+                }
+            }
+
             if (filename != null) {
                 status = CommandProvider.exec(shellContext, filename);
             } else if (script != null) {
@@ -105,6 +117,11 @@ public class Main
                     script = args[++argIndex];
                 } else if (args[argIndex].equals("-c") || args[argIndex].equals("-encoding")) {
                     shellContext.setEncoding(args[++argIndex]);
+                } else if (args[argIndex].equals("-l")) {
+                    for (String name : args[++argIndex].split(File.pathSeparator)) {
+                        if (name.length() != 0)
+                            libraries.add(new File(name));
+                    }
                 } else if (args[argIndex].equals("-i")) {
                     shellContext.setInteractive(true);
                 } else if (args[argIndex].startsWith("-")) {
@@ -232,6 +249,19 @@ public class Main
         }
     }
 
+    private int load_library(ScriptEngine engine, List<File> files) {
+        try {
+            ELiteScriptEngineFactory.loadLibrary(engine, files, shellContext.getEncoding());
+            return 0;
+        } catch (ScriptException ex) {
+            System.err.println(ex.getMessage());
+            return 1;
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            return 1;
+        }
+    }
+
     private int exec_script(ScriptEngine engine, String script) {
         try {
             Object value = engine.eval(script);
@@ -16,12 +16,15 @@
  */
 package org.operamasks.el.shell.command;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URL;
+import java.util.List;
+import java.util.ArrayList;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -31,6 +34,7 @@ import javax.script.ScriptException;
 
 import org.operamasks.el.eval.VariableMapperImpl;
 import org.operamasks.el.resolver.MethodResolver;
+import org.operamasks.el.script.ELiteScriptEngineFactory;
 import org.operamasks.el.shell.ShellContext;
 
 import elite.lang.Builtin;
@@ -39,6 +43,7 @@ public final class CommandProvider {
     private static final String COMMANDS[] = {
         "?                       print this usage information",
         "@ <filename>            specify a file to execute",
+        "load <filename>...      load files as a library, parsing them concurrently",
         "ls [x|a]                list system|global methods and all variable's key",
         "quit                    quit shell",
         "which <classname>       find out the absolute path of specify classname"
@@ -74,6 +79,28 @@ public final class CommandProvider {
         return 0;
     }
 
+    public static int load(ShellContext shellContext, String args) {
+        if (args == null || args.length() == 0) {
+            System.err.println("file name is null!");
+            return 1;
+        }
+        List<File> files = new ArrayList<File>();
+        for (String name : args.split("\\s+")) {
+            files.add(new File(name));
+        }
+        try {
+            ELiteScriptEngineFactory.loadLibrary(shellContext.getEngine(), files, shellContext.getEncoding());
+        } catch (ScriptException ex) {
+            System.err.println(ex.getMessage());
+            return 1;
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            return 1;
+        }
+
+        return 0;
+    }
+
     public static void quit(ShellContext shellContext, String args) {
         System.out.println("Bye!");
         shellContext.setCompleted(true);
@@ -30,7 +30,8 @@ import java.lang.reflect.Modifier;
 
 public class BeanUtils
 {
-    private static final SimpleCache<Class,BeanProperties> cache = SimpleCache.make(1000);
+    private static final SimpleCache<Class,BeanProperties> cache =
+        SimpleCache.make("bean.properties", 1000);
 
     private static final class BeanProperties {
         private final Map<String,BeanProperty> properties;
@@ -17,51 +17,257 @@
 
 package org.operamasks.util;
 
-import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * A bounded cache with approximate least-recently-used eviction.
+ *
+ * <p>The cache is split into segments, each a concurrent map with its own
+ * CLOCK eviction ring. Reads never lock, they only mark the entry as
+ * referenced, and a put locks a single segment and evicts the first entry
+ * not referenced since the clock hand last passed it. A cache created with
+ * a name takes its capacity from the system property
+ * <code>elite.cache.<i>name</i>.size</code> when it is defined.</p>
+ */
 public class SimpleCache<K,V>
 {
-    private int capacity;
-    private Map<Object,V> cache;
-    private Map<Object,V> cache2;
+    private final String name;
+    private final Segment<V>[] segments;
+    private volatile int capacity;
 
-    private static Object NULL_KEY = new Object();
+    private static final Object NULL_KEY = new Object();
+    private static final int MAX_SEGMENTS = 16;
 
     public static <K,V> SimpleCache<K,V> make(int capacity) {
-        return new SimpleCache<K,V>(capacity);
+        return new SimpleCache<K,V>(null, capacity);
+    }
+
+    public static <K,V> SimpleCache<K,V> make(String name, int capacity) {
+        return new SimpleCache<K,V>(name, capacity);
     }
 
     public SimpleCache(int capacity) {
-        this.capacity = capacity;
-        cache = new ConcurrentHashMap<Object,V>(capacity);
-        cache2 = new ConcurrentHashMap<Object,V>(capacity);
+        this(null, capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    public SimpleCache(String name, int capacity) {
+        if (name != null) {
+            capacity = Integer.getInteger("elite.cache." + name + ".size", capacity);
+        }
+
+        int nseg = 1;
+        while (nseg < MAX_SEGMENTS && nseg * 32 <= capacity)
+            nseg <<= 1;
+
+        this.name = name;
+        this.segments = (Segment<V>[])new Segment<?>[nseg];
+        for (int i = 0; i < nseg; i++)
+            segments[i] = new Segment<V>();
+        setCapacity(capacity);
+    }
+
+    private static final class Node<V> {
+        final Object key;
+        volatile V value;
+        volatile boolean referenced;
+
+        Node(Object key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Segment<V> {
+        final ConcurrentHashMap<Object,Node<V>> map =
+            new ConcurrentHashMap<Object,Node<V>>();
+
+        // the eviction ring and the clock hand, guarded by this segment
+        final List<Node<V>> clock = new ArrayList<Node<V>>();
+        int hand;
+        int limit;
+
+        // statistics are kept per segment to avoid a shared hot spot
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+
+        V get(Object key) {
+            Node<V> node = map.get(key);
+            if (node == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (!node.referenced)
+                node.referenced = true;
+            hits.incrementAndGet();
+            return node.value;
+        }
+
+        synchronized void put(Object key, V value) {
+            Node<V> node = map.get(key);
+            if (node != null) {
+                node.value = value;
+                node.referenced = true;
+                return;
+            }
+
+            node = new Node<V>(key, value);
+            if (clock.size() < limit) {
+                clock.add(node);
+            } else {
+                int i = victim();
+                map.remove(clock.get(i).key);
+                clock.set(i, node);
+                hand = i + 1;
+                evictions.incrementAndGet();
+            }
+            map.put(key, node);
+        }
+
+        synchronized void remove(Object key) {
+            Node<V> node = map.remove(key);
+            if (node != null) {
+                int i = clock.indexOf(node);
+                clock.remove(i);
+                if (hand > i) hand--;
+            }
+        }
+
+        synchronized void clear() {
+            map.clear();
+            clock.clear();
+            hand = 0;
+        }
+
+        synchronized void setLimit(int limit) {
+            this.limit = limit;
+            while (clock.size() > limit) {
+                int i = victim();
+                map.remove(clock.get(i).key);
+                clock.remove(i);
+                hand = i;
+                evictions.incrementAndGet();
+            }
+        }
+
+        // advance the clock hand to the first entry not referenced since
+        // the last sweep, clearing the reference marks on the way
+        private int victim() {
+            for (;;) {
+                if (hand >= clock.size())
+                    hand = 0;
+                Node<V> node = clock.get(hand);
+                if (!node.referenced)
+                    return hand;
+                node.referenced = false;
+                hand++;
+            }
+        }
+    }
+
+    private Segment<V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & (segments.length - 1)];
     }
 
     public V get(Object key) {
         if (key == null) key = NULL_KEY;
-        V result = cache.get(key);
-        if (result == null)
-            result = cache2.get(key);
-        return result;
+        return segmentFor(key).get(key);
     }
 
     public void put(K key, V value) {
         assert value != null;
-        if (cache.size() > capacity) {
-            cache2.clear();
-            cache2.putAll(cache);
-            cache.clear();
+        Object k = (key == null) ? NULL_KEY : key;
+        segmentFor(k).put(k, value);
+    }
+
+    public void remove(Object key) {
+        if (key == null) key = NULL_KEY;
+        segmentFor(key).remove(key);
+    }
+
+    public void clear() {
+        for (Segment<V> seg : segments) {
+            seg.clear();
         }
-        if (key == null) {
-            cache.put(NULL_KEY, value);
-        } else {
-            cache.put(key, value);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<V> seg : segments) {
+            size += seg.map.size();
         }
+        return size;
     }
 
-    public void clear() {
-        cache.clear();
-        cache2.clear();
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Change the capacity of this cache. Entries that no longer fit in
+     * are evicted immediately.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity: " + capacity);
+
+        int n = segments.length;
+        this.capacity = capacity;
+        for (int i = 0; i < n; i++) {
+            segments[i].setLimit(Math.max(1, capacity / n + (i < capacity % n ? 1 : 0)));
+        }
+    }
+
+    public long getHitCount() {
+        long n = 0;
+        for (Segment<V> seg : segments)
+            n += seg.hits.get();
+        return n;
+    }
+
+    public long getMissCount() {
+        long n = 0;
+        for (Segment<V> seg : segments)
+            n += seg.misses.get();
+        return n;
+    }
+
+    public long getEvictionCount() {
+        long n = 0;
+        for (Segment<V> seg : segments)
+            n += seg.evictions.get();
+        return n;
+    }
+
+    public double getHitRatio() {
+        long h = getHitCount(), m = getMissCount();
+        return (h + m == 0) ? 1.0 : (double)h / (h + m);
+    }
+
+    public void resetStatistics() {
+        for (Segment<V> seg : segments) {
+            seg.hits.set(0);
+            seg.misses.set(0);
+            seg.evictions.set(0);
+        }
+    }
+
+    public String toString() {
+        return "SimpleCache[" + (name == null ? "" : name + ": ")
+             + "size=" + size() + "/" + capacity
+             + ", hits=" + getHitCount()
+             + ", misses=" + getMissCount()
+             + ", evictions=" + getEvictionCount() + "]";
     }
 }